@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012 Taro L. Saito
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import xerial.jnuma.buffer.NumaBufferConfig;
+import xerial.jnuma.buffer.NumaByteBuffer;
+import xerial.jnuma.buffer.NumaMemoryAllocator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of allocating and releasing a NumaByteBuffer on the
+ * current node with each allocator at varying thread counts.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AllocationBenchmark {
+
+    @Param({"direct", "arena", "arena+threadCache"})
+    public String allocator;
+
+    @Param({"64", "4096", "262144"})
+    public long size;
+
+    // Each allocator starts a collector thread that never exits, so
+    // the allocators are created once per fork and shared by trials
+    private static final Map<String, NumaMemoryAllocator> allocators =
+            new HashMap<String, NumaMemoryAllocator>();
+
+    private NumaMemoryAllocator original;
+
+    private static synchronized NumaMemoryAllocator allocatorOf(String name) {
+        NumaMemoryAllocator a = allocators.get(name);
+        if (a == null) {
+            if ("direct".equals(name)) {
+                a = new NumaMemoryAllocator(false, 0);
+            } else if ("arena".equals(name)) {
+                a = new NumaMemoryAllocator(true, 0);
+            } else {
+                a = new NumaMemoryAllocator(true, 64);
+            }
+            allocators.put(name, a);
+        }
+        return a;
+    }
+
+    @Setup
+    public void setUp() {
+        original = NumaBufferConfig.allocator;
+        NumaBufferConfig.allocator = allocatorOf(allocator);
+    }
+
+    @TearDown
+    public void tearDown() {
+        NumaBufferConfig.allocator = original;
+    }
+
+    private long allocateAndRelease() {
+        final NumaByteBuffer buf = new NumaByteBuffer(size);
+        final long address = buf.address();
+        buf.release();
+        return address;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long threads1() {
+        return allocateAndRelease();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long threads4() {
+        return allocateAndRelease();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public long threadsMax() {
+        return allocateAndRelease();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 Taro L. Saito
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import xerial.jnuma.Numa;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of the JNI calls that hot paths make to find where
+ * the current thread runs, against a plain field read and the
+ * per-thread cached lookups.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JniBenchmark {
+
+    private int node = 0;
+
+    @Benchmark
+    public int baseline() {
+        return node;
+    }
+
+    @Benchmark
+    public int currentNode() {
+        return Numa.currentNode();
+    }
+
+    @Benchmark
+    public int currentCpu() {
+        return Numa.currentCpu();
+    }
+
+    @Benchmark
+    public int cachedCurrentNode() {
+        return Numa.cachedCurrentNode();
+    }
+
+    @Benchmark
+    public int cachedCurrentCpu() {
+        return Numa.cachedCurrentCpu();
+    }
+}
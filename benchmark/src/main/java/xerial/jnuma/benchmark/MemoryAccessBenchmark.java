@@ -0,0 +1,109 @@
+/*
+ * Copyright 2012 Taro L. Saito
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import xerial.jnuma.Numa;
+import xerial.jnuma.buffer.NumaByteBuffer;
+import xerial.jnuma.buffer.NumaProbe;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bandwidth and latency of accessing a NumaByteBuffer placed on the
+ * local node, a remote node or interleaved over all nodes.
+ * Bandwidth is reported as buffer scans per second, and latency as
+ * the time of a dependent load in a random pointer chain.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class MemoryAccessBenchmark {
+
+    private static final int CHASE_STEPS = 1024;
+
+    @Param({"local", "remote", "interleaved"})
+    public String placement;
+
+    // Much larger than the last level cache
+    @Param({"268435456"})
+    public long size;
+
+    private NumaByteBuffer buffer;
+    private long cursor = 0L;
+
+    @Setup
+    public void setUp() {
+        Numa.runOnNode(Placement.LOCAL_NODE);
+        buffer = Placement.allocate(placement, size);
+        NumaProbe.buildChain(buffer, size, new Random(42));
+    }
+
+    @TearDown
+    public void tearDown() {
+        buffer.release();
+        Numa.runOnAllNodes();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long sequentialRead() {
+        long sum = 0L;
+        for (long offset = 0; offset < size; offset += 8) {
+            sum += buffer.getLong(offset);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void sequentialWrite() {
+        // Each benchmark sets up its own buffer, so breaking the chain is fine
+        for (long offset = 0; offset < size; offset += 8) {
+            buffer.putLong(offset, offset);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(CHASE_STEPS)
+    public long pointerChase() {
+        long p = cursor;
+        for (int i = 0; i < CHASE_STEPS; i++) {
+            p = buffer.getLong(p);
+        }
+        cursor = p;
+        return p;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012 Taro L. Saito
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import xerial.jnuma.Numa;
+import xerial.jnuma.PageStatus;
+import xerial.jnuma.buffer.NumaByteBuffer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to migrate a buffer back and forth between the local and
+ * the remote node with {@code movePages}. On a single-node machine,
+ * this measures the cost of the system calls alone.
+ *
+ * {@code toNodePolicyOnly} is a baseline: the pages are already
+ * touched, and numa_tonode_memory(3) only changes the policy of the
+ * range without moving them.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MigrationBenchmark {
+
+    @Param({"65536", "16777216"})
+    public int size;
+
+    private NumaByteBuffer buffer;
+    private int[] nodes;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        buffer = new NumaByteBuffer(size, Placement.LOCAL_NODE, true);
+        nodes = new int[] {Placement.remoteNode(), Placement.LOCAL_NODE};
+    }
+
+    @TearDown
+    public void tearDown() {
+        buffer.release();
+    }
+
+    private int nextNode() {
+        next = (next + 1) % nodes.length;
+        return nodes[next];
+    }
+
+    @Benchmark
+    public void toNodePolicyOnly() {
+        Numa.toNode(buffer.address(), size, nextNode());
+    }
+
+    @Benchmark
+    public PageStatus movePages() {
+        return Numa.movePages(buffer.address(), size, nextNode());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2012 Taro L. Saito
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.benchmark;
+
+import xerial.jnuma.Numa;
+import xerial.jnuma.buffer.NumaByteBuffer;
+
+/**
+ * Where benchmark buffers are placed relative to the benchmark
+ * threads, which run on node 0. On a single-node machine, the
+ * remote node falls back on node 0.
+ */
+final class Placement {
+
+    static final int LOCAL_NODE = 0;
+
+    private Placement() {}
+
+    // Return the node farthest from the local node
+    static int remoteNode() {
+        int farthest = LOCAL_NODE;
+        for (int i = 0; i < Numa.numNodes(); i++) {
+            if (Numa.distance(LOCAL_NODE, i) > Numa.distance(LOCAL_NODE, farthest))
+                farthest = i;
+        }
+        return farthest;
+    }
+
+    /**
+     * Allocate a buffer of populated pages placed by a given name:
+     * "local", "remote" or "interleaved" (round-robin over nodes).
+     */
+    static NumaByteBuffer allocate(String placement, long size) {
+        if ("local".equals(placement)) {
+            return new NumaByteBuffer(size, LOCAL_NODE, true);
+        } else if ("remote".equals(placement)) {
+            return new NumaByteBuffer(size, remoteNode(), true);
+        } else if ("interleaved".equals(placement)) {
+            final NumaByteBuffer buf = new NumaByteBuffer(size, LOCAL_NODE, true);
+            interleave(buf);
+            return buf;
+        }
+        throw new IllegalArgumentException("Unknown placement: " + placement);
+    }
+
+    // Move the i-th page of a buffer to node (i % numNodes)
+    private static void interleave(NumaByteBuffer buf) {
+        final int numNodes = Numa.numNodes();
+        final long pageSize = Numa.pageSize();
+        final int numPages = (int) ((buf.size() + pageSize - 1) / pageSize);
+        for (int node = 1; node < numNodes; node++) {
+            final int n = (numPages - node + numNodes - 1) / numNodes;
+            final long[] addresses = new long[n];
+            final long[] lengths = new long[n];
+            for (int i = 0; i < n; i++) {
+                addresses[i] = buf.address() + (node + (long) i * numNodes) * pageSize;
+                lengths[i] = pageSize;
+            }
+            Numa.movePages(addresses, lengths, node);
+        }
+    }
+}
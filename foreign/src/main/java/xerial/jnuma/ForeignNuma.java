@@ -0,0 +1,556 @@
+/*
+ * Copyright 2012 Taro L. Saito
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Path;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * NUMA API implementation that calls libnuma and libc through the Foreign
+ * Function and Memory API (JDK 22 or later) instead of the JNI binding.
+ * No jnuma native library is needed, and affinity masks are passed in
+ * native segments instead of pinned Java arrays.
+ *
+ * {@link Numa} picks this class when it is found in the class path and
+ * the JVM supports it; set -Dxerial.jnuma.backend=jni to use the JNI
+ * binding instead. Run with --enable-native-access=ALL-UNNAMED to
+ * silence the restricted method warnings.
+ */
+public class ForeignNuma implements NumaInterface {
+
+    // Constants in the Linux headers of x86_64
+    private static final int PROT_READ_WRITE = 0x3;
+    private static final int MAP_PRIVATE = 0x02;
+    private static final int MAP_ANONYMOUS = 0x20;
+    private static final int MAP_HUGETLB = 0x40000;
+    private static final int MAP_HUGE_SHIFT = 26;
+    private static final int MADV_HUGEPAGE = 14;
+    private static final int MADV_POPULATE_WRITE = 23;
+    private static final int MPOL_MF_MOVE = 1 << 1;
+    private static final int SC_PAGESIZE = 30;
+    private static final int ENOMEM = 12;
+    private static final int EINVAL = 22;
+    private static final long THP_SIZE = 2L * 1024 * 1024;
+
+    private static final Linker LINKER = Linker.nativeLinker();
+    private static final SymbolLookup LIBC = LINKER.defaultLookup();
+    private static final SymbolLookup LIBNUMA = lookupLibNuma();
+
+    // Calls setting errno capture it into a segment of this layout
+    private static final StructLayout CALL_STATE = Linker.Option.captureStateLayout();
+    private static final long ERRNO_OFFSET =
+            CALL_STATE.byteOffset(MemoryLayout.PathElement.groupElement("errno"));
+
+    private static final MethodHandle NUMA_AVAILABLE = numa("numa_available", FunctionDescriptor.of(JAVA_INT));
+    private static final MethodHandle NUMA_MAX_NODE = numa("numa_max_node", FunctionDescriptor.of(JAVA_INT));
+    // Short calls that never block nor call back into Java skip
+    // the thread state transition of a downcall
+    private static final MethodHandle NUMA_NODE_OF_CPU = numa("numa_node_of_cpu",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT), Linker.Option.critical(false));
+    private static final MethodHandle NUMA_NUM_CONFIGURED_CPUS = numa("numa_num_configured_cpus", FunctionDescriptor.of(JAVA_INT));
+    private static final MethodHandle NUMA_NODE_SIZE64 = numa("numa_node_size64", FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS));
+    private static final MethodHandle NUMA_DISTANCE = numa("numa_distance", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT));
+    // The results of numa_run_on_node and munmap are ignored as in NumaNative
+    private static final MethodHandle NUMA_RUN_ON_NODE = numa("numa_run_on_node", FunctionDescriptor.ofVoid(JAVA_INT));
+    private static final MethodHandle NUMA_PREFERRED = numa("numa_preferred", FunctionDescriptor.of(JAVA_INT));
+    private static final MethodHandle NUMA_SET_PREFERRED = numa("numa_set_preferred", FunctionDescriptor.ofVoid(JAVA_INT));
+    private static final MethodHandle NUMA_SET_LOCALALLOC = numa("numa_set_localalloc", FunctionDescriptor.ofVoid());
+    private static final MethodHandle NUMA_ALLOC = numa("numa_alloc", FunctionDescriptor.of(ADDRESS, JAVA_LONG));
+    private static final MethodHandle NUMA_ALLOC_LOCAL = numa("numa_alloc_local", FunctionDescriptor.of(ADDRESS, JAVA_LONG));
+    private static final MethodHandle NUMA_ALLOC_ONNODE = numa("numa_alloc_onnode", FunctionDescriptor.of(ADDRESS, JAVA_LONG, JAVA_INT));
+    private static final MethodHandle NUMA_ALLOC_INTERLEAVED = numa("numa_alloc_interleaved", FunctionDescriptor.of(ADDRESS, JAVA_LONG));
+    private static final MethodHandle NUMA_FREE = numa("numa_free", FunctionDescriptor.ofVoid(ADDRESS, JAVA_LONG));
+    private static final MethodHandle NUMA_TONODE_MEMORY = numa("numa_tonode_memory", FunctionDescriptor.ofVoid(ADDRESS, JAVA_LONG, JAVA_INT));
+    private static final MethodHandle NUMA_ALLOCATE_NODEMASK = numa("numa_allocate_nodemask", FunctionDescriptor.of(ADDRESS));
+    // The mask returned by numa_bitmask_setbit is the one passed, so it is ignored
+    private static final MethodHandle NUMA_BITMASK_SETBIT = numa("numa_bitmask_setbit", FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT));
+    private static final MethodHandle NUMA_BITMASK_FREE = numa("numa_bitmask_free", FunctionDescriptor.ofVoid(ADDRESS));
+    private static final MethodHandle NUMA_ALLOC_INTERLEAVED_SUBSET = numa("numa_alloc_interleaved_subset",
+            FunctionDescriptor.of(ADDRESS, JAVA_LONG, ADDRESS));
+    private static final MethodHandle NUMA_TONODEMASK_MEMORY = numa("numa_tonodemask_memory",
+            FunctionDescriptor.ofVoid(ADDRESS, JAVA_LONG, ADDRESS));
+    // Heap arrays are passed without copies, as GetPrimitiveArrayCritical does
+    private static final MethodHandle NUMA_TONODE_HEAP = numa("numa_tonode_memory",
+            FunctionDescriptor.ofVoid(ADDRESS, JAVA_LONG, JAVA_INT), Linker.Option.critical(true));
+    private static final MethodHandle NUMA_MOVE_PAGES = numa("numa_move_pages",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_LONG, ADDRESS, ADDRESS, ADDRESS, JAVA_INT),
+            Linker.Option.captureCallState("errno"));
+
+    private static final MethodHandle SCHED_GETCPU = libc("sched_getcpu",
+            FunctionDescriptor.of(JAVA_INT), Linker.Option.critical(false));
+    private static final MethodHandle SCHED_GETAFFINITY = libc("sched_getaffinity",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_LONG, ADDRESS), Linker.Option.captureCallState("errno"));
+    private static final MethodHandle SCHED_SETAFFINITY = libc("sched_setaffinity",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_LONG, ADDRESS), Linker.Option.captureCallState("errno"));
+    private static final MethodHandle MMAP = libc("mmap",
+            FunctionDescriptor.of(ADDRESS, ADDRESS, JAVA_LONG, JAVA_INT, JAVA_INT, JAVA_INT, JAVA_LONG),
+            Linker.Option.captureCallState("errno"));
+    private static final MethodHandle MUNMAP = libc("munmap", FunctionDescriptor.ofVoid(ADDRESS, JAVA_LONG));
+    private static final MethodHandle MADVISE = libc("madvise", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_LONG, JAVA_INT));
+    private static final MethodHandle SYSCONF = libc("sysconf", FunctionDescriptor.of(JAVA_LONG, JAVA_INT));
+
+    private static SymbolLookup lookupLibNuma() {
+        for (String path : JnumaLibLoader.libNumaPaths()) {
+            if (path == null) continue;
+            try {
+                return SymbolLookup.libraryLookup(Path.of(path), Arena.global());
+            } catch (IllegalArgumentException e) {
+                // Try the next one
+            }
+        }
+        // Leave it to the dynamic linker
+        return SymbolLookup.libraryLookup("libnuma.so.1", Arena.global());
+    }
+
+    private static MethodHandle numa(String name, FunctionDescriptor desc, Linker.Option... options) {
+        return LINKER.downcallHandle(LIBNUMA.find(name).orElseThrow(), desc, options);
+    }
+
+    private static MethodHandle libc(String name, FunctionDescriptor desc, Linker.Option... options) {
+        return LINKER.downcallHandle(LIBC.find(name).orElseThrow(), desc, options);
+    }
+
+    // Throw the checked exception that NumaNative throws from its native code
+    private static RuntimeException error(int errorCode) {
+        return ForeignNuma.<RuntimeException>sneakyThrow(
+                new NumaException(String.format("NUMA error occurred %d", errorCode)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E extends Throwable> E sneakyThrow(Throwable e) throws E {
+        throw (E) e;
+    }
+
+    // Propagate a failure in a downcall as it is
+    private static RuntimeException rethrow(Throwable e) {
+        return ForeignNuma.<RuntimeException>sneakyThrow(e);
+    }
+
+    private static int errno(MemorySegment state) {
+        return state.get(JAVA_INT, ERRNO_OFFSET);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        try {
+            return (int) NUMA_AVAILABLE.invokeExact() != -1;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public int maxNode() {
+        try {
+            return (int) NUMA_MAX_NODE.invokeExact();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public int currentNode() {
+        return nodeOfCpu(currentCpu());
+    }
+
+    @Override
+    public int currentCpu() {
+        try {
+            return (int) SCHED_GETCPU.invokeExact();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public int nodeOfCpu(int cpu) {
+        try {
+            return (int) NUMA_NODE_OF_CPU.invokeExact(cpu);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public int numConfiguredCpus() {
+        try {
+            return (int) NUMA_NUM_CONFIGURED_CPUS.invokeExact();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public long nodeSize(int node) {
+        try {
+            return (long) NUMA_NODE_SIZE64.invokeExact(node, MemorySegment.NULL);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public long freeSize(int node) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment free = arena.allocate(JAVA_LONG);
+            final long size = (long) NUMA_NODE_SIZE64.invokeExact(node, free);
+            return (size < 0)? 0L : free.get(JAVA_LONG, 0);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public int distance(int node1, int node2) {
+        try {
+            return (int) NUMA_DISTANCE.invokeExact(node1, node2);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public void runOnNode(int node) {
+        try {
+            NUMA_RUN_ON_NODE.invokeExact(node);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public int preferredNode() {
+        try {
+            return (int) NUMA_PREFERRED.invokeExact();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public void setPreferred(int node) {
+        try {
+            NUMA_SET_PREFERRED.invokeExact(node);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public void setLocalAlloc() {
+        try {
+            NUMA_SET_LOCALALLOC.invokeExact();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    // The kernel rejects masks smaller than its own CPU mask,
+    // so start from the size of cpu_set_t in glibc
+    private static long maskBytes(int numCPUs) {
+        return Math.max(128L, (numCPUs + 63L) / 64L * 8L);
+    }
+
+    @Override
+    public void getAffinity(int pid, long[] cpuBitMask, int numCPUs) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment state = arena.allocate(CALL_STATE);
+            for (long bytes = maskBytes(numCPUs); ; bytes *= 2) {
+                final MemorySegment mask = arena.allocate(bytes, 8);
+                final int ret = (int) SCHED_GETAFFINITY.invokeExact(state, pid, bytes, mask);
+                if (ret >= 0) {
+                    for (int w = 0; w < cpuBitMask.length; w++) {
+                        final int bits = Math.min(64, numCPUs - w * 64);
+                        final long word = (w * 8L < bytes)? mask.get(JAVA_LONG, w * 8L) : 0L;
+                        cpuBitMask[w] = (bits <= 0)? 0L : (bits == 64)? word : word & ((1L << bits) - 1);
+                    }
+                    return;
+                }
+                if (errno(state) != EINVAL || bytes >= (1L << 20))
+                    throw error(errno(state));
+            }
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public void setAffinity(int pid, long[] cpuBitMask, int numCPUs) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment state = arena.allocate(CALL_STATE);
+            final long bytes = maskBytes(numCPUs);
+            final MemorySegment mask = arena.allocate(bytes, 8);
+            for (int i = 0; i < numCPUs && i / 64 < cpuBitMask.length; i++) {
+                if ((cpuBitMask[i / 64] & (1L << (i % 64))) != 0) {
+                    final long offset = (i / 64) * 8L;
+                    mask.set(JAVA_LONG, offset, mask.get(JAVA_LONG, offset) | (1L << (i % 64)));
+                }
+            }
+            final int ret = (int) SCHED_SETAFFINITY.invokeExact(state, pid, bytes, mask);
+            if (ret < 0)
+                throw error(errno(state));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static long checkAllocated(MemorySegment mem) {
+        if (mem.address() == 0L)
+            throw error(11);
+        return mem.address();
+    }
+
+    @Override
+    public long allocate(long capacity) {
+        try {
+            return checkAllocated((MemorySegment) NUMA_ALLOC.invokeExact(capacity));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public long allocateLocal(long capacity) {
+        try {
+            return checkAllocated((MemorySegment) NUMA_ALLOC_LOCAL.invokeExact(capacity));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public long allocateOnNode(long capacity, int node) {
+        try {
+            return checkAllocated((MemorySegment) NUMA_ALLOC_ONNODE.invokeExact(capacity, node));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public long allocateInterleaved(long capacity) {
+        try {
+            return checkAllocated((MemorySegment) NUMA_ALLOC_INTERLEAVED.invokeExact(capacity));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public long allocateInterleavedSubset(long capacity, long[] nodeBitMask) {
+        try {
+            final MemorySegment mask = toNodeMask(nodeBitMask);
+            try {
+                return checkAllocated((MemorySegment) NUMA_ALLOC_INTERLEAVED_SUBSET.invokeExact(capacity, mask));
+            } finally {
+                NUMA_BITMASK_FREE.invokeExact(mask);
+            }
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    // Build a libnuma node mask, which starts with its size in bits
+    private static MemorySegment toNodeMask(long[] nodeBitMask) throws Throwable {
+        final MemorySegment mask = (MemorySegment) NUMA_ALLOCATE_NODEMASK.invokeExact();
+        if (mask.equals(MemorySegment.NULL))
+            throw error(ENOMEM);
+        final long size = mask.reinterpret(JAVA_LONG.byteSize()).get(JAVA_LONG, 0);
+        for (int i = 0; i < nodeBitMask.length * 64 && i < size; i++) {
+            if ((nodeBitMask[i / 64] & (1L << (i % 64))) != 0) {
+                NUMA_BITMASK_SETBIT.invokeExact(mask, i);
+            }
+        }
+        return mask;
+    }
+
+    @Override
+    public void free(long address, long capacity) {
+        if (address == 0L) return;
+        try {
+            NUMA_FREE.invokeExact(MemorySegment.ofAddress(address), capacity);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public boolean prefault(long address, long length) {
+        try {
+            // madvise() needs a page-aligned start address
+            final long pageSize = (long) SYSCONF.invokeExact(SC_PAGESIZE);
+            final long start = address & ~(pageSize - 1);
+            final int ret = (int) MADVISE.invokeExact(MemorySegment.ofAddress(start),
+                    address + length - start, MADV_POPULATE_WRITE);
+            return ret == 0;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public long allocateHugePages(long capacity, int node, long hugePageSize, long[] obtainedPageSize) {
+        // The capacity is rounded up to a multiple of the huge page size in Numa
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment state = arena.allocate(CALL_STATE);
+            long pageSize = hugePageSize;
+            long mem = ((MemorySegment) MMAP.invokeExact(state, MemorySegment.NULL, capacity, PROT_READ_WRITE,
+                    MAP_PRIVATE | MAP_ANONYMOUS | MAP_HUGETLB
+                            | (Long.numberOfTrailingZeros(hugePageSize) << MAP_HUGE_SHIFT),
+                    -1, 0L)).address();
+            if (mem == -1L) {
+                // No huge pages reserved in hugetlbfs, so fall back on
+                // transparent huge pages in a region aligned to their size
+                final long raw = ((MemorySegment) MMAP.invokeExact(state, MemorySegment.NULL, capacity + THP_SIZE,
+                        PROT_READ_WRITE, MAP_PRIVATE | MAP_ANONYMOUS, -1, 0L)).address();
+                if (raw == -1L)
+                    throw error(errno(state));
+                final long aligned = (raw + THP_SIZE - 1) & ~(THP_SIZE - 1);
+                if (aligned > raw) {
+                    MUNMAP.invokeExact(MemorySegment.ofAddress(raw), aligned - raw);
+                }
+                MUNMAP.invokeExact(MemorySegment.ofAddress(aligned + capacity),
+                        raw + THP_SIZE - aligned);
+                mem = aligned;
+                final int ret = (int) MADVISE.invokeExact(MemorySegment.ofAddress(mem), capacity, MADV_HUGEPAGE);
+                pageSize = (ret == 0)? THP_SIZE : (long) SYSCONF.invokeExact(SC_PAGESIZE);
+            }
+            // Bind the region to the node before any page is touched
+            toNode(mem, capacity, node);
+            obtainedPageSize[0] = pageSize;
+            return mem;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public void toNode(long address, long length, int node) {
+        try {
+            NUMA_TONODE_MEMORY.invokeExact(MemorySegment.ofAddress(address), length, node);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public void toNodes(long address, long length, long[] nodeBitMask) {
+        try {
+            final MemorySegment mask = toNodeMask(nodeBitMask);
+            try {
+                NUMA_TONODEMASK_MEMORY.invokeExact(MemorySegment.ofAddress(address), length, mask);
+            } finally {
+                NUMA_BITMASK_FREE.invokeExact(mask);
+            }
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public void toNode(Object array, int length, int node) {
+        try {
+            NUMA_TONODE_HEAP.invokeExact(heapSegment(array), (long) length, node);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static MemorySegment heapSegment(Object array) {
+        if (array instanceof byte[]) return MemorySegment.ofArray((byte[]) array);
+        if (array instanceof short[]) return MemorySegment.ofArray((short[]) array);
+        if (array instanceof char[]) return MemorySegment.ofArray((char[]) array);
+        if (array instanceof int[]) return MemorySegment.ofArray((int[]) array);
+        if (array instanceof long[]) return MemorySegment.ofArray((long[]) array);
+        if (array instanceof float[]) return MemorySegment.ofArray((float[]) array);
+        if (array instanceof double[]) return MemorySegment.ofArray((double[]) array);
+        throw new IllegalArgumentException("Not a primitive array: " + array);
+    }
+
+    @Override
+    public void movePages(int count, long[] pages, int[] nodes, int[] status) {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment state = arena.allocate(CALL_STATE);
+            final MemorySegment pageBuf = arena.allocate(JAVA_LONG, count);
+            MemorySegment.copy(pages, 0, pageBuf, JAVA_LONG, 0, count);
+            // A NULL node array queries the current node of each page
+            MemorySegment nodeBuf = MemorySegment.NULL;
+            if (nodes != null) {
+                nodeBuf = arena.allocate(JAVA_INT, count);
+                MemorySegment.copy(nodes, 0, nodeBuf, JAVA_INT, 0, count);
+            }
+            final MemorySegment statusBuf = arena.allocate(JAVA_INT, count);
+            final int ret = (int) NUMA_MOVE_PAGES.invokeExact(state, 0, (long) count,
+                    pageBuf, nodeBuf, statusBuf, MPOL_MF_MOVE);
+            if (ret < 0)
+                throw error(errno(state));
+            MemorySegment.copy(statusBuf, JAVA_INT, 0, status, 0, count);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Create an arena whose segments are allocated on a given node
+     * and freed together when the arena is closed.
+     */
+    public static Arena ofNode(int node) {
+        return new NodeArena(node);
+    }
+
+    /** An arena allocating segments on a node with libnuma. */
+    private static final class NodeArena implements Arena {
+        private final int node;
+        private final Arena scope = Arena.ofShared();
+        private final ForeignNuma numa = new ForeignNuma();
+
+        NodeArena(int node) {
+            this.node = node;
+        }
+
+        @Override
+        public MemorySegment allocate(long byteSize, long byteAlignment) {
+            // libnuma returns page-aligned memory
+            if (byteAlignment > (1L << 12))
+                throw new IllegalArgumentException("Unsupported alignment: " + byteAlignment);
+            final long size = Math.max(1L, byteSize);
+            final long address = numa.allocateOnNode(size, node);
+            return MemorySegment.ofAddress(address).reinterpret(byteSize, scope, seg -> numa.free(address, size));
+        }
+
+        @Override
+        public MemorySegment.Scope scope() {
+            return scope.scope();
+        }
+
+        @Override
+        public void close() {
+            scope.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012 Taro L. Saito
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma
+
+import org.scalatest.WordSpec
+
+/**
+ * Runs the FFM backend in a JVM forked with JAVA22_HOME (see project/Build.scala),
+ * and is canceled on JVMs older than JDK 22.
+ */
+class ForeignNumaTest extends WordSpec {
+
+  private def javaVersion: Int = {
+    val v = sys.props("java.specification.version")
+    (if (v.startsWith("1.")) v.substring(2) else v).toInt
+  }
+
+  // Load the class reflectively since it needs JDK 22 or later
+  private def foreignNuma(): NumaInterface = {
+    assume(javaVersion >= 22, s"needs JDK 22 or later, but runs on ${javaVersion}")
+    val n = Class.forName("xerial.jnuma.ForeignNuma").getDeclaredConstructor().newInstance().asInstanceOf[NumaInterface]
+    assume(n.isAvailable, "libnuma is not available")
+    n
+  }
+
+  "ForeignNuma" should {
+    "report the topology" in {
+      val n = foreignNuma()
+      val maxNode = n.maxNode()
+      assert(maxNode >= 0)
+      val cpu = n.currentCpu()
+      assert(cpu >= 0 && cpu < n.numConfiguredCpus())
+      val node = n.nodeOfCpu(cpu)
+      assert(node >= 0 && node <= maxNode)
+      assert(n.nodeSize(node) > 0)
+      assert(n.freeSize(node) >= 0)
+      assert(n.distance(node, node) === 10)
+    }
+
+    "set the affinity" in {
+      val n = foreignNuma()
+      val numCpus = n.numConfiguredCpus()
+      val mask = new Array[Long]((numCpus + 63) / 64)
+      n.getAffinity(0, mask, numCpus)
+      assert(mask.exists(_ != 0L))
+      n.setAffinity(0, mask, numCpus)
+      n.runOnNode(n.nodeOfCpu(n.currentCpu()))
+      val after = new Array[Long](mask.length)
+      n.getAffinity(0, after, numCpus)
+      assert(after.exists(_ != 0L))
+      // Restore the affinity of this thread
+      n.setAffinity(0, mask, numCpus)
+    }
+
+    "allocate memory on a node" in {
+      val n = foreignNuma()
+      val size = 4L * 1024 * 1024
+      val node = n.nodeOfCpu(n.currentCpu())
+      val addr = n.allocateOnNode(size, node)
+      assert(addr != 0L)
+      assert(n.prefault(addr, size))
+      val pageSize = 4096L
+      val count = 4
+      val pages = Array.tabulate(count)(i => addr + i * pageSize)
+      val status = new Array[Int](count)
+      n.movePages(count, pages, null, status)
+      assert(status.forall(_ === node))
+      n.toNode(addr, size, node)
+      n.free(addr, size)
+
+      val obtained = new Array[Long](1)
+      val hugeSize = 2L * 1024 * 1024
+      val huge = n.allocateHugePages(hugeSize, node, hugeSize, obtained)
+      assert(huge != 0L)
+      assert(obtained(0) > 0L)
+      n.free(huge, hugeSize)
+
+      val array = new Array[Byte](1024 * 1024)
+      n.toNode(array, array.length, node)
+    }
+
+    "report errors of moving pages" in {
+      val n = foreignNuma()
+      // A page not mapped in this process gets -EFAULT in its status
+      val status = new Array[Int](1)
+      n.movePages(1, Array(4096L), null, status)
+      assert(status(0) === -14)
+
+      // A node that does not exist fails the whole call
+      val addr = n.allocateOnNode(4096L, 0)
+      try {
+        n.prefault(addr, 4096L)
+        intercept[NumaException] {
+          n.movePages(1, Array(addr), Array(n.maxNode() + 1), status)
+        }
+      } finally {
+        n.free(addr, 4096L)
+      }
+    }
+
+    "allocate segments in an arena of a node" in {
+      foreignNuma()
+      val arenaClass = Class.forName("java.lang.foreign.Arena")
+      val arena = Class.forName("xerial.jnuma.ForeignNuma").getMethod("ofNode", classOf[Int])
+              .invoke(null, Integer.valueOf(0)).asInstanceOf[AutoCloseable]
+      try {
+        val seg = arenaClass.getMethod("allocate", classOf[Long]).invoke(arena, java.lang.Long.valueOf(4096L))
+        val byteSize = Class.forName("java.lang.foreign.MemorySegment").getMethod("byteSize").invoke(seg).asInstanceOf[java.lang.Long]
+        assert(byteSize.longValue() === 4096L)
+      } finally {
+        arena.close()
+      }
+    }
+  }
+}
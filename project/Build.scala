@@ -1,5 +1,6 @@
 import sbt._
 import sbt.Keys._
+import pl.project13.scala.sbt.JmhPlugin
 
 object Build extends sbt.Build {
 
@@ -14,4 +15,38 @@ object Build extends sbt.Build {
       // add other settings here
     )
   )
+
+  // A JDK 22 or later to build and test the FFM backend with, if sbt runs on an older one
+  val java22Home = sys.env.get("JAVA22_HOME").map(file)
+
+  // An FFM backend of NumaInterface, which needs JDK 22 or later
+  lazy val foreign = Project(
+    id = "jnuma-foreign",
+    base = file("foreign"),
+    settings = Project.defaultSettings ++ Seq(
+      name := "jnuma-foreign",
+      organization := "xerial",
+      version := "0.2.0",
+      scalaVersion := "2.10.4",
+      javacOptions ++= Seq("--release", "22"),
+      javaHome := java22Home,
+      libraryDependencies += "org.scalatest" % "scalatest_2.10" % "2.2.5" % "test",
+      // ForeignNumaTest runs in a forked JVM, and is canceled before JDK 22
+      fork in Test := true,
+      javaOptions in Test ++= java22Home.toSeq.map(_ => "--enable-native-access=ALL-UNNAMED")
+    )
+  ).dependsOn(jnuma)
+
+  // JMH benchmarks, run by `bin/sbt "jnuma-benchmark/jmh:run"`
+  lazy val benchmark = Project(
+    id = "jnuma-benchmark",
+    base = file("benchmark"),
+    settings = Project.defaultSettings ++ Seq(
+      name := "jnuma-benchmark",
+      organization := "xerial",
+      version := "0.2.0",
+      scalaVersion := "2.10.4",
+      publishArtifact := false
+    )
+  ).dependsOn(jnuma).enablePlugins(JmhPlugin)
 }
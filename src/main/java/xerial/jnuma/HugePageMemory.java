@@ -0,0 +1,42 @@
+/*
+ * Copyright 2012 Taro L. Saito
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma;
+
+/**
+ * Memory allocated by {@link Numa#allocateHugePages(long, int, long)}.
+ */
+public final class HugePageMemory {
+    public final long address;
+    // The byte size rounded up to a multiple of the huge page size
+    public final long size;
+    // The page size actually obtained, which is smaller than
+    // the requested one if huge pages are not available
+    public final long pageSize;
+
+    HugePageMemory(long address, long size, long pageSize) {
+        this.address = address;
+        this.size = size;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns true if the memory is backed by huge pages.
+     */
+    public boolean isHugePage() {
+        return pageSize > Numa.pageSize();
+    }
+}
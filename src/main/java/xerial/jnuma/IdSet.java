@@ -0,0 +1,239 @@
+/*
+ * Copyright 2012 Taro L. Saito
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of CPU or node numbers held in a bit mask that is
+ * as long as the largest number needs. From the LSB of the first word,
+ * bits correspond to number 0, 1, 2, ...
+ *
+ * A set is formatted as a list like "0-15,32-47", which is the format
+ * of cpulist files in sysfs and the Cpus_allowed_list of /proc.
+ */
+abstract class IdSet<S extends IdSet<S>> {
+
+    // No trailing zero words, so that equal sets have equal arrays
+    final long[] words;
+
+    IdSet(long[] words) {
+        int n = words.length;
+        while (n > 0 && words[n - 1] == 0L) n--;
+        this.words = (n == words.length)? words : Arrays.copyOf(words, n);
+    }
+
+    // Create a set of the same type from a bit mask
+    abstract S newSet(long[] words);
+
+    static long[] maskOf(int... ids) {
+        int max = -1;
+        for (int id : ids) {
+            checkId(id);
+            max = Math.max(max, id);
+        }
+        final long[] words = new long[(max + 64) / 64];
+        for (int id : ids) {
+            words[id / 64] |= 1L << (id % 64);
+        }
+        return words;
+    }
+
+    static long[] maskOfRange(int first, int last) {
+        checkId(first);
+        if (last < first)
+            throw new IllegalArgumentException(String.format("Invalid range: %d-%d", first, last));
+        final long[] words = new long[last / 64 + 1];
+        for (int w = first / 64; w <= last / 64; w++) {
+            final long lo = (w == first / 64)? -1L << (first % 64) : -1L;
+            final long hi = (w == last / 64)? -1L >>> (63 - last % 64) : -1L;
+            words[w] = lo & hi;
+        }
+        return words;
+    }
+
+    /**
+     * Parse a list like "0-3,8,10-11"; whitespaces around it are ignored.
+     */
+    static long[] parseMask(String list) {
+        long[] words = new long[0];
+        final String s = list.trim();
+        if (s.isEmpty()) return words;
+        for (String range : s.split(",")) {
+            final String r = range.trim();
+            final int dash = r.indexOf('-');
+            final long[] m;
+            try {
+                if (dash < 0) {
+                    m = maskOf(Integer.parseInt(r));
+                } else {
+                    m = maskOfRange(Integer.parseInt(r.substring(0, dash)),
+                            Integer.parseInt(r.substring(dash + 1)));
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid list: " + list, e);
+            }
+            words = or(words, m);
+        }
+        return words;
+    }
+
+    private static void checkId(int id) {
+        if (id < 0)
+            throw new IllegalArgumentException("Negative number: " + id);
+    }
+
+    private static long[] or(long[] a, long[] b) {
+        final long[] r = Arrays.copyOf(a, Math.max(a.length, b.length));
+        for (int i = 0; i < b.length; i++) {
+            r[i] |= b[i];
+        }
+        return r;
+    }
+
+    public boolean contains(int id) {
+        return id >= 0 && id / 64 < words.length && (words[id / 64] & (1L << (id % 64))) != 0;
+    }
+
+    /**
+     * Return true if this set has all the numbers in another set.
+     */
+    public boolean containsAll(S other) {
+        final long[] o = other.words;
+        if (o.length > words.length) return false;
+        for (int i = 0; i < o.length; i++) {
+            if ((o[i] & ~words[i]) != 0) return false;
+        }
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return words.length == 0;
+    }
+
+    /**
+     * Return the number of elements.
+     */
+    public int size() {
+        int n = 0;
+        for (long w : words) {
+            n += Long.bitCount(w);
+        }
+        return n;
+    }
+
+    /**
+     * Return the smallest number, or -1 if empty.
+     */
+    public int first() {
+        return next(0);
+    }
+
+    /**
+     * Return the largest number, or -1 if empty.
+     */
+    public int last() {
+        if (words.length == 0) return -1;
+        final int w = words.length - 1;
+        return w * 64 + 63 - Long.numberOfLeadingZeros(words[w]);
+    }
+
+    /**
+     * Return the smallest number not less than a given one, or -1 if none.
+     */
+    public int next(int from) {
+        int w = Math.max(0, from) / 64;
+        if (w >= words.length) return -1;
+        long bits = words[w] & (-1L << (Math.max(0, from) % 64));
+        while (bits == 0) {
+            if (++w == words.length) return -1;
+            bits = words[w];
+        }
+        return w * 64 + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * Return the numbers in ascending order.
+     */
+    public int[] toArray() {
+        final int[] ids = new int[size()];
+        int i = 0;
+        for (int id = first(); id >= 0; id = next(id + 1)) {
+            ids[i++] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Return a copy of the bit mask, which has no trailing zero words.
+     */
+    public long[] toMask() {
+        return words.clone();
+    }
+
+    public S union(S other) {
+        return newSet(or(words, other.words));
+    }
+
+    public S intersect(S other) {
+        final long[] o = other.words;
+        final long[] r = new long[Math.min(words.length, o.length)];
+        for (int i = 0; i < r.length; i++) {
+            r[i] = words[i] & o[i];
+        }
+        return newSet(r);
+    }
+
+    /**
+     * Return the numbers in this set but not in another set.
+     */
+    public S minus(S other) {
+        final long[] o = other.words;
+        final long[] r = words.clone();
+        for (int i = 0; i < Math.min(r.length, o.length); i++) {
+            r[i] &= ~o[i];
+        }
+        return newSet(r);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj != null && obj.getClass() == getClass() && Arrays.equals(words, ((IdSet<?>) obj).words);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(words);
+    }
+
+    /**
+     * Format this set as a list like "0-15,32-47".
+     */
+    @Override
+    public String toString() {
+        final StringBuilder b = new StringBuilder();
+        for (int begin = first(); begin >= 0; ) {
+            int end = begin;
+            while (contains(end + 1)) end++;
+            if (b.length() > 0) b.append(',');
+            b.append(begin);
+            if (end > begin) b.append('-').append(end);
+            begin = next(end + 1);
+        }
+        return b.toString();
+    }
+}
@@ -57,6 +57,11 @@ public class JnumaLibLoader extends Logging {
     isLoaded = true;
   }
 
+  // Candidate paths of libnuma, which may contain null
+  static Set<String> libNumaPaths() {
+    return LIBNUMA_PATHS;
+  }
+
   static boolean tryLoad(String name) {
     try {
       // Why does System.load() seem not to work?
@@ -18,6 +18,8 @@ package xerial.jnuma;
 
 import xerial.jnuma.utils.PlatformDependent;
 
+import java.util.Arrays;
+
 /**
  * A stub when accessing numa API is not supported in the system.
  * @author leo
@@ -44,6 +46,16 @@ public class NoNuma implements NumaInterface {
         return 0;
     }
 
+    @Override
+    public int nodeOfCpu(int cpu) {
+        return 0;
+    }
+
+    @Override
+    public int numConfiguredCpus() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
     @Override
     public long nodeSize(int node) {
         return Runtime.getRuntime().maxMemory();
@@ -81,7 +93,10 @@ public class NoNuma implements NumaInterface {
 
     @Override
     public void getAffinity(int pid, long[] cpuBitMask, int numCPUs) {
-        // do nothing
+        // Allow all the CPUs
+        final long[] all = CpuSet.range(0, Runtime.getRuntime().availableProcessors() - 1).toMask();
+        Arrays.fill(cpuBitMask, 0L);
+        System.arraycopy(all, 0, cpuBitMask, 0, Math.min(all.length, cpuBitMask.length));
     }
 
     @Override
@@ -109,13 +124,29 @@ public class NoNuma implements NumaInterface {
         return this.allocate(capacity);
     }
 
+    @Override
+    public long allocateInterleavedSubset(long capacity, long[] nodeBitMask) {
+        return this.allocate(capacity);
+    }
+
     @Override
     public void free(long address, long capacity) {
         PlatformDependent.UNSAFE.freeMemory(address);
     }
 
     @Override
-    public void toNode(long address, int length, int node) {
+    public boolean prefault(long address, long length) {
+        return false;
+    }
+
+    @Override
+    public long allocateHugePages(long capacity, int node, long hugePageSize, long[] obtainedPageSize) {
+        obtainedPageSize[0] = PlatformDependent.UNSAFE.pageSize();
+        return this.allocate(capacity);
+    }
+
+    @Override
+    public void toNode(long address, long length, int node) {
         // do nothing
     }
 
@@ -123,4 +154,15 @@ public class NoNuma implements NumaInterface {
     public void toNode(Object array, int length, int node) {
         // do nothing
     }
+
+    @Override
+    public void toNodes(long address, long length, long[] nodeBitMask) {
+        // do nothing
+    }
+
+    @Override
+    public void movePages(int count, long[] pages, int[] nodes, int[] status) {
+        // All the pages are in the single node
+        Arrays.fill(status, 0, count, 0);
+    }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012 Taro L. Saito
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma;
+
+/**
+ * An immutable set of node numbers with no limit on the largest number.
+ * Use {@link #parse(String)} to read a list like "0-15,32-47" and
+ * {@link #toString()} to format it.
+ */
+public final class NodeSet extends IdSet<NodeSet> {
+
+    public static final NodeSet EMPTY = new NodeSet(new long[0]);
+
+    private NodeSet(long[] words) {
+        super(words);
+    }
+
+    @Override
+    NodeSet newSet(long[] words) {
+        return new NodeSet(words);
+    }
+
+    public static NodeSet of(int... nodes) {
+        return new NodeSet(maskOf(nodes));
+    }
+
+    /**
+     * Return the nodes from first to last, both inclusive.
+     */
+    public static NodeSet range(int first, int last) {
+        return new NodeSet(maskOfRange(first, last));
+    }
+
+    /**
+     * Parse a list like "0-15,32-47".
+     * @throws IllegalArgumentException if the list is malformed
+     */
+    public static NodeSet parse(String list) {
+        return new NodeSet(parseMask(list));
+    }
+
+    /**
+     * Create a set from a bit mask, where bit i of word j is node 64 * j + i.
+     */
+    public static NodeSet fromMask(long[] mask) {
+        return new NodeSet(mask.clone());
+    }
+}
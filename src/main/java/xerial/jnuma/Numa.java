@@ -18,6 +18,15 @@ package xerial.jnuma;
 
 import xerial.jnuma.utils.Logging;
 import xerial.jnuma.utils.OSInfo;
+import xerial.jnuma.utils.PlatformDependent;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /** Numa API. */
 public class Numa extends Logging {
@@ -25,20 +34,78 @@ public class Numa extends Logging {
     // The NUMA API implementation
     private static NumaInterface impl = null;
 
+    // Sizes of huge pages on x86_64
+    public static final long HUGE_PAGE_2MB = 2L * 1024 * 1024;
+    public static final long HUGE_PAGE_1GB = 1024L * 1024 * 1024;
+
+    // The number of pages passed to move_pages(2) at a time
+    private static final int MOVE_PAGES_BATCH_SIZE = 4096;
+
+    // A thread to move pages in background
+    private static ExecutorService pageMigrator = null;
+
+    // The backend to use: "jni", "ffm" or "auto" to try them in order
+    public static final String BACKEND_KEY = "xerial.jnuma.backend";
+
+    // The number of calls that cachedCurrentCpu() and cachedCurrentNode()
+    // serve from a per-thread cache before checking the CPU again
+    public static final String CPU_CHECK_INTERVAL_KEY = "xerial.jnuma.cpuCheckInterval";
+
     static {
+        final String backend = System.getProperty(BACKEND_KEY, "auto");
         if (OSInfo.getOSName().equals("linux")
                 && OSInfo.getArchName().equals("x86_64")) {
-            try {
-                JnumaLibLoader.load();
-                impl = new NumaNative();
-            } catch (Exception e) {
-                logger.warning("Can't load a jnuma native library into JVM");
+            if (!backend.equals("ffm")) {
+                try {
+                    JnumaLibLoader.load();
+                    impl = new NumaNative();
+                } catch (Exception e) {
+                    logger.warning("Can't load a jnuma native library into JVM");
+                }
+            }
+            // The FFM backend is used only when asked for or without the JNI one
+            if ((impl == null || !impl.isAvailable()) && !backend.equals("jni")) {
+                final NumaInterface foreign = loadForeignNuma();
+                if (foreign != null) impl = foreign;
             }
         }
         if (impl == null || !impl.isAvailable()) {
-            logger.warning("NUMA not aviable in this platform");
-            impl = new NoNuma();
+            // Still report the topology if sysfs describes it
+            if (OSInfo.getOSName().equals("linux") && SysfsNuma.isSupported(new File("/"))) {
+                try {
+                    impl = new SysfsNuma();
+                    logger.warning("NUMA API not available; reading the topology from sysfs");
+                } catch (Exception e) {
+                    logger.warning("Can't read the NUMA topology from sysfs");
+                }
+            }
+            if (!(impl instanceof SysfsNuma)) {
+                logger.warning("NUMA not aviable in this platform");
+                impl = new NoNuma();
+            }
+        }
+    }
+
+    // Load the FFM backend in jnuma-foreign if it is in the class path,
+    // which needs JDK 22 or later
+    private static NumaInterface loadForeignNuma() {
+        try {
+            final NumaInterface n = (NumaInterface) Class.forName("xerial.jnuma.ForeignNuma")
+                    .getDeclaredConstructor().newInstance();
+            if (n.isAvailable()) return n;
+        } catch (ClassNotFoundException e) {
+            // Not in the class path
+        } catch (ReflectiveOperationException e) {
+            logger.warning("Can't instantiate the FFM backend: " + e);
+        } catch (Throwable e) {
+            logger.warning("Can't use the FFM backend: " + e);
         }
+        return null;
+    }
+
+    // Used to load a topology snapshot
+    static NumaInterface impl() {
+        return impl;
     }
 
     /**
@@ -53,15 +120,16 @@ public class Numa extends Logging {
      * @return
      */
     public static int numNodes() {
-        return impl.maxNode() + 1;
+        return NumaTopology.get().numNodes();
     }
 
     /**
-     * Return a current node of this thread.
+     * Return a current node of this thread, which is looked
+     * up in the CPU-to-node table of {@link NumaTopology}.
      * @return
      */
     public static int currentNode() {
-        return impl.currentNode();
+        return NumaTopology.currentNode();
     }
 
     /**
@@ -72,6 +140,28 @@ public class Numa extends Logging {
         return impl.currentCpu();
     }
 
+    /**
+     * Return a current CPU of this thread from a per-thread cache, which
+     * is checked again every {@link #CPU_CHECK_INTERVAL_KEY} calls (1024
+     * by default) and when this thread changes its affinity. It costs a
+     * thread-local read instead of a native call, but it may be stale
+     * for a while after the OS migrates the thread, so use it for hints
+     * like routing records to node-local structures.
+     * @return
+     */
+    public static int cachedCurrentCpu() {
+        return NumaTopology.cachedCurrentCpu();
+    }
+
+    /**
+     * Return a current node of this thread from the per-thread cache
+     * of {@link #cachedCurrentCpu()}.
+     * @return
+     */
+    public static int cachedCurrentNode() {
+        return NumaTopology.cachedCurrentNode();
+    }
+
     /**
      * Get the number of CPUs available to this machine.
      * @return
@@ -106,7 +196,7 @@ public class Numa extends Logging {
      * @return node distance
      */
     public static int distance(int node1, int node2) {
-        return impl.distance(node1, node2);
+        return NumaTopology.get().distance(node1, node2);
     }
 
     /**
@@ -137,57 +227,66 @@ public class Numa extends Logging {
         impl.setLocalAlloc();
     }
 
+    // The smallest CPU mask that getAffinity() reads, as large as cpu_set_t
+    private static final int MIN_AFFINITY_CPUS = 1024;
+
     /**
      * Set the affinity of this thread to a single CPU.
      * @param cpu cpu number
      */
     public static void setAffinity(int cpu) {
-        setAffinityImpl(newCPUBitMaskForOneCPU(cpu));
+        setAffinity(CpuSet.of(cpu));
     }
 
     /**
-     * Reset the affinity of the current thread to CPUs.
+     * Set the affinity of this thread to a set of CPUs.
+     * @param cpus cpu set, which must not be empty
      */
-    public static void resetAffinity() {
-        impl.setAffinity(0, newCPUBitMaskForAllCPUs(), numCPUs());
+    public static void setAffinity(CpuSet cpus) {
+        if (cpus.isEmpty())
+            throw new IllegalArgumentException("Empty CPU set");
+        final long[] mask = cpus.toMask();
+        impl.setAffinity(0, mask, mask.length * 64);
+        NumaTopology.invalidateCachedCpu();
     }
 
     /**
-     * Set the affinity of this thread to CPUs specified
-     * in the bit vector.
-     * @param cpuBitMask bit vector.
+     * Return the CPUs that this thread is allowed to run on.
      */
-    private static void setAffinityImpl(long[] cpuBitMask) {
-        impl.setAffinity(0, cpuBitMask, numCPUs());
+    public static CpuSet getAffinity() {
+        return getAffinity(0);
     }
 
     /**
-     * Create a bit mask for specifying CPU sets.
-     * From the LSB, it corresponds CPU0, CPU1, CPU2, ...
+     * Return the CPUs that a task is allowed to run on.
+     * @param pid task id, or 0 for the current thread
      */
-    private static long[] newCPUBitMask() {
-        return new long[(numCPUs() + 64 -1) / 64];
+    public static CpuSet getAffinity(int pid) {
+        final int numCPUs = Math.max(MIN_AFFINITY_CPUS, allCPUs().last() + 1);
+        final long[] mask = new long[(numCPUs + 63) / 64];
+        impl.getAffinity(pid, mask, mask.length * 64);
+        return CpuSet.fromMask(mask);
     }
 
     /**
-     * Create a bit mask setting a single CPU on.
-     * @param cpu number
+     * Reset the affinity of the current thread to CPUs.
      */
-    private static long[] newCPUBitMaskForOneCPU(int cpu) {
-        long[] cpuMask = newCPUBitMask();
-        cpuMask[cpu / 64] |= 1L << (cpu % 64);
-        return cpuMask;
+    public static void resetAffinity() {
+        setAffinity(allCPUs());
+    }
+
+    // All the CPUs configured in this machine; the kernel drops
+    // the ones that cgroups do not allow
+    private static CpuSet allCPUs() {
+        return CpuSet.range(0, Math.max(NumaTopology.get().numCPUs(), numCPUs()) - 1);
     }
 
     /**
-     * Create a bit mask setting all CPUs on.
+     * Run the current thread and its children on the CPUs of given nodes.
+     * @param nodes node set, which must have CPUs
      */
-    private static long[] newCPUBitMaskForAllCPUs() {
-        long[] cpuMask = newCPUBitMask();
-        int M = numCPUs();
-        for(int i=0; i<cpuMask.length; ++i)
-            cpuMask[i] |= (i*64 > M) ? ~0L : ~(~0L << (M % 64));
-        return cpuMask;
+    public static void runOnNodes(NodeSet nodes) {
+        setAffinity(NumaTopology.get().cpusOf(nodes));
     }
 
     /**
@@ -197,6 +296,7 @@ public class Numa extends Logging {
      */
     public static void runOnNode(int node) {
         impl.runOnNode(node);
+        NumaTopology.invalidateCachedCpu();
     }
 
     public static void runOnAllNodes() {
@@ -219,6 +319,76 @@ public class Numa extends Logging {
         return impl.allocateInterleaved(capacity);
     }
 
+    /**
+     * Allocate memory interleaved over given nodes page by page.
+     * @param nodes node set, which must not be empty
+     */
+    public static long allocateInterleaved(long capacity, NodeSet nodes) {
+        return impl.allocateInterleavedSubset(capacity, nodeMaskOf(nodes));
+    }
+
+    /**
+     * Allocate memory bound to given nodes, which is taken from
+     * any of them as the kernel sees fit.
+     * @param nodes node set, which must not be empty
+     */
+    public static long allocateOnNodes(long capacity, NodeSet nodes) {
+        final long[] mask = nodeMaskOf(nodes);
+        final long address = impl.allocate(capacity);
+        try {
+            impl.toNodes(address, capacity, mask);
+        } catch (RuntimeException e) {
+            impl.free(address, capacity);
+            throw e;
+        }
+        return address;
+    }
+
+    private static long[] nodeMaskOf(NodeSet nodes) {
+        if (nodes.isEmpty())
+            throw new IllegalArgumentException("Empty node set");
+        if (nodes.last() >= numNodes())
+            throw new IllegalArgumentException("Invalid node: " + nodes.last());
+        return nodes.toMask();
+    }
+
+    /**
+     * Allocate memory backed by huge pages on a node to reduce TLB misses.
+     * Huge pages reserved in hugetlbfs are used if available. Otherwise,
+     * transparent huge pages are requested with madvise(MADV_HUGEPAGE),
+     * and regular pages are used if it fails too.
+     * @param capacity byte size, rounded up to a multiple of the huge page size
+     * @param node node number
+     * @param hugePageSize {@link #HUGE_PAGE_2MB} or {@link #HUGE_PAGE_1GB}
+     * @return the allocated memory, which must be released by
+     *         {@link #free(long, long)} with its size
+     */
+    public static HugePageMemory allocateHugePages(long capacity, int node, long hugePageSize) {
+        if (hugePageSize != HUGE_PAGE_2MB && hugePageSize != HUGE_PAGE_1GB)
+            throw new IllegalArgumentException("Unsupported huge page size: " + hugePageSize);
+        final long size = (capacity + hugePageSize - 1) / hugePageSize * hugePageSize;
+        final long[] obtainedPageSize = new long[1];
+        final long address = impl.allocateHugePages(size, node, hugePageSize, obtainedPageSize);
+        return new HugePageMemory(address, size, obtainedPageSize[0]);
+    }
+
+    /**
+     * Populate the pages in a given memory range in advance so that
+     * the first writes to the range do not take page faults.
+     * It uses madvise(MADV_POPULATE_WRITE) if the kernel supports it,
+     * and otherwise touches every page in the calling thread.
+     * Memory bound to a node is populated on the node.
+     */
+    public static void prefault(long address, long length) {
+        if (length <= 0 || impl.prefault(address, length)) return;
+        // Rewrite a byte of every page with its own value
+        final long end = address + length;
+        final long pageMask = -(long) pageSize();
+        for (long p = address; p < end; p = (p & pageMask) + pageSize()) {
+            PlatformDependent.UNSAFE.putByte(p, PlatformDependent.UNSAFE.getByte(p));
+        }
+    }
+
     /**
      * Release the memory resource allocated at the specified
      * address and capacity.
@@ -231,9 +401,25 @@ public class Numa extends Logging {
      * Move given memory range to a node.
      */
     public static void toNode(long address, int byteLength, int node) {
+        impl.toNode(address, (long) byteLength, node);
+    }
+
+    /**
+     * Move given memory range to a node, which can exceed 2GB.
+     */
+    public static void toNode(long address, long byteLength, int node) {
         impl.toNode(address, byteLength, node);
     }
 
+    /**
+     * Bind given memory range to a set of nodes. Pages already
+     * touched stay where they are.
+     * @param nodes node set, which must not be empty
+     */
+    public static void toNodes(long address, long byteLength, NodeSet nodes) {
+        impl.toNodes(address, byteLength, nodeMaskOf(nodes));
+    }
+
     /**
      * Send the primitive-typed array to a given node.
      * To send the array to a node correctly,
@@ -242,4 +428,144 @@ public class Numa extends Logging {
     public static void toNode(Object array, int byteLength, int node) {
         impl.toNode(array, byteLength, node);
     }
+
+    /**
+     * Return the page size of this system.
+     */
+    public static int pageSize() {
+        return PlatformDependent.UNSAFE.pageSize();
+    }
+
+    /**
+     * Move pages in a given memory range to a node.
+     * Unlike {@link #toNode(long, long, int)}, the resulting
+     * node of each page is reported.
+     * @param address start address of the range
+     * @param length byte length of the range
+     * @param node target node
+     * @return the status of each page in the range
+     */
+    public static PageStatus movePages(long address, long length, int node) {
+        return movePages(new long[] {address}, new long[] {length}, node);
+    }
+
+    /**
+     * Move pages in given memory ranges to a node.
+     * @param addresses start addresses of the ranges
+     * @param lengths byte lengths of the ranges
+     * @param node target node
+     * @return the status of each page in the ranges
+     */
+    public static PageStatus movePages(long[] addresses, long[] lengths, int node) {
+        if (node < 0)
+            throw new IllegalArgumentException("Invalid node: " + node);
+        return pageStatus(addresses, lengths, node, 1);
+    }
+
+    /**
+     * Query the node where each page in a given memory range resides.
+     * Pages not touched yet have no node and report -ENOENT.
+     * @param address start address of the range
+     * @param length byte length of the range
+     * @return the status of each page in the range
+     */
+    public static PageStatus queryPages(long address, long length) {
+        return queryPages(address, length, 1);
+    }
+
+    /**
+     * Query the node of every stride-th page in a given memory range.
+     * Sampling pages makes the query cheap enough for periodic checks
+     * of large ranges.
+     * @param address start address of the range
+     * @param length byte length of the range
+     * @param stride the interval of pages to query
+     * @return the status of the queried pages
+     */
+    public static PageStatus queryPages(long address, long length, int stride) {
+        if (stride <= 0)
+            throw new IllegalArgumentException("Invalid stride: " + stride);
+        return pageStatus(new long[] {address}, new long[] {length}, -1, stride);
+    }
+
+    /**
+     * Move pages in given memory ranges to a node in a background thread.
+     * The ranges must not be freed until the returned future completes.
+     */
+    public static Future<PageStatus> movePagesAsync(
+            final long[] addresses, final long[] lengths, final int node) {
+        return pageMigrator().submit(new Callable<PageStatus>() {
+            @Override
+            public PageStatus call() {
+                return movePages(addresses, lengths, node);
+            }
+        });
+    }
+
+    private static synchronized ExecutorService pageMigrator() {
+        if (pageMigrator == null) {
+            pageMigrator = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "jnuma-page-migrator");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pageMigrator;
+    }
+
+    /**
+     * Move every stride-th page in memory ranges to a node, or query
+     * the node of the pages if a negative node is given.
+     */
+    private static PageStatus pageStatus(long[] addresses, long[] lengths, int node, int stride) {
+        if (addresses.length != lengths.length)
+            throw new IllegalArgumentException("The numbers of addresses and lengths differ");
+        // Align the ranges on page boundaries
+        final int pageSize = pageSize();
+        final long step = (long) pageSize * stride;
+        final long[] starts = new long[addresses.length];
+        final long[] sizes = new long[addresses.length];
+        long numPages = 0;
+        for (int r = 0; r < addresses.length; r++) {
+            if (lengths[r] < 0)
+                throw new IllegalArgumentException("Negative length: " + lengths[r]);
+            starts[r] = addresses[r] & -(long) pageSize;
+            final long end = (lengths[r] == 0)?
+                    starts[r] : (addresses[r] + lengths[r] + pageSize - 1) & -(long) pageSize;
+            sizes[r] = end - starts[r];
+            numPages += (sizes[r] + step - 1) / step;
+        }
+        if (numPages > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many pages: " + numPages);
+
+        final int[] status = new int[(int) numPages];
+        final int batchSize = (int) Math.min(MOVE_PAGES_BATCH_SIZE, numPages);
+        final long[] pages = new long[batchSize];
+        final int[] batchStatus = new int[batchSize];
+        int[] nodes = null;
+        if (node >= 0) {
+            nodes = new int[batchSize];
+            Arrays.fill(nodes, node);
+        }
+        int done = 0, n = 0;
+        for (int r = 0; r < starts.length; r++) {
+            for (long p = starts[r]; p < starts[r] + sizes[r]; p += step) {
+                pages[n++] = p;
+                if (n == batchSize) {
+                    impl.movePages(n, pages, nodes, batchStatus);
+                    System.arraycopy(batchStatus, 0, status, done, n);
+                    done += n;
+                    n = 0;
+                }
+            }
+        }
+        if (n > 0) {
+            impl.movePages(n, pages, nodes, batchStatus);
+            System.arraycopy(batchStatus, 0, status, done, n);
+        }
+        return new PageStatus(starts, sizes, step, status);
+    }
 }
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2012 Taro L. Saito
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An executor that keeps a pool of worker threads running on each NUMA
+ * node. A task is queued on the node given as a hint (e.g., the node of
+ * the buffer it touches), or on the node of the submitting thread.
+ *
+ * Workers take tasks from the head of their own node queue. Only when it
+ * is empty, they steal from the tail of the other queues in the order of
+ * {@link Numa#distance(int, int)}, so tasks run on the nearest idle node.
+ *
+ * Idle workers park until a submitted task wakes one of them, preferring
+ * a worker of the task node and then the nearest nodes. As a safety net,
+ * they also look for tasks at intervals that back off from
+ * {@link #STEAL_INTERVAL_MICROS} to {@link #MAX_STEAL_INTERVAL_MICROS}.
+ */
+public class NumaExecutor extends AbstractExecutorService {
+
+    public static final long STEAL_INTERVAL_MICROS = 500L;
+    public static final long MAX_STEAL_INTERVAL_MICROS = 100L * 1000;
+
+    private final int threadsPerNode;
+    private final LinkedBlockingDeque<Runnable>[] queues;
+
+    // Parked workers of each node
+    private final ConcurrentLinkedQueue<Thread>[] idleWorkers;
+
+    // Other nodes sorted by the distance from each node
+    private final int[][] stealOrder;
+
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private final CountDownLatch terminated;
+    private final AtomicLong stolenCount = new AtomicLong(0);
+
+    // The worker running on the current thread, if any
+    private final ThreadLocal<Worker> currentWorker = new ThreadLocal<Worker>();
+
+    private volatile boolean shutdown = false;
+    private volatile boolean stopped = false;
+
+    /**
+     * Create an executor with worker threads as many as the CPUs in each node.
+     */
+    public NumaExecutor() {
+        this(Math.max(1, Numa.numCPUs() / Numa.numNodes()));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public NumaExecutor(int threadsPerNode) {
+        if (threadsPerNode <= 0)
+            throw new IllegalArgumentException("Invalid number of threads: " + threadsPerNode);
+        final int numNodes = Numa.numNodes();
+        this.threadsPerNode = threadsPerNode;
+        this.queues = new LinkedBlockingDeque[numNodes];
+        this.idleWorkers = new ConcurrentLinkedQueue[numNodes];
+        this.stealOrder = new int[numNodes][];
+        for (int i = 0; i < numNodes; i++) {
+            queues[i] = new LinkedBlockingDeque<Runnable>();
+            idleWorkers[i] = new ConcurrentLinkedQueue<Thread>();
+            stealOrder[i] = nodesByDistance(i, numNodes);
+        }
+        this.terminated = new CountDownLatch(numNodes * threadsPerNode);
+        for (int i = 0; i < numNodes; i++) {
+            for (int j = 0; j < threadsPerNode; j++) {
+                final Thread t = new Thread(new Worker(i),
+                        String.format("jnuma-executor-node%d-%d", i, j));
+                t.setDaemon(true);
+                workers.add(t);
+            }
+        }
+        for (Thread t : workers) {
+            t.start();
+        }
+    }
+
+    private static int[] nodesByDistance(final int node, int numNodes) {
+        final List<Integer> others = new ArrayList<Integer>();
+        for (int i = 0; i < numNodes; i++) {
+            if (i != node) others.add(i);
+        }
+        // A stable sort keeps the node order for equal distances
+        Collections.sort(others, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(Numa.distance(node, a), Numa.distance(node, b));
+            }
+        });
+        final int[] order = new int[others.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = others.get(i);
+        }
+        return order;
+    }
+
+    public int numNodes() {
+        return queues.length;
+    }
+
+    public int threadsPerNode() {
+        return threadsPerNode;
+    }
+
+    /**
+     * Return the number of tasks run by workers of another node.
+     */
+    public long stolenCount() {
+        return stolenCount.get();
+    }
+
+    /**
+     * Run a task on the node of the calling thread, which is looked up
+     * in the per-thread cache of {@link Numa#cachedCurrentNode()}.
+     */
+    @Override
+    public void execute(Runnable task) {
+        execute(task, Numa.cachedCurrentNode());
+    }
+
+    /**
+     * Run a task on a given node, or on another one if the node is busy.
+     */
+    public void execute(Runnable task, int node) {
+        if (task == null)
+            throw new NullPointerException();
+        if (node < 0 || node >= queues.length)
+            throw new IllegalArgumentException("Invalid node: " + node);
+        if (shutdown)
+            throw new RejectedExecutionException("Executor has been shut down");
+        queues[node].offerLast(task);
+        // Workers may have drained the queues on shutdown in the meantime
+        if (shutdown && queues[node].removeLastOccurrence(task))
+            throw new RejectedExecutionException("Executor has been shut down");
+        wakeWorker(node);
+    }
+
+    // Wake a parked worker of the node, or of the nearest node that has one
+    private void wakeWorker(int node) {
+        Thread t = idleWorkers[node].poll();
+        for (int i = 0; t == null && i < stealOrder[node].length; i++) {
+            t = idleWorkers[stealOrder[node][i]].poll();
+        }
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    public <T> Future<T> submit(Callable<T> task, int node) {
+        final RunnableFuture<T> f = newTaskFor(task);
+        execute(f, node);
+        return f;
+    }
+
+    public Future<?> submit(Runnable task, int node) {
+        final RunnableFuture<Object> f = newTaskFor(task, null);
+        execute(f, node);
+        return f;
+    }
+
+    /**
+     * Run a queued task in the calling thread if it is a worker of this
+     * executor. A task waiting for other tasks of this executor should
+     * call this while it waits, or all the workers may end up waiting.
+     * @return false if the caller is not a worker or no task is queued
+     */
+    public boolean runQueuedTask() {
+        final Worker w = currentWorker.get();
+        if (w == null) return false;
+        final Runnable task = w.poll();
+        if (task == null) return false;
+        w.runTask(task);
+        return true;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        // Let parked workers see the flag
+        for (Thread t : workers) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        stopped = true;
+        final List<Runnable> pending = new ArrayList<Runnable>();
+        for (LinkedBlockingDeque<Runnable> q : queues) {
+            q.drainTo(pending);
+        }
+        for (Thread t : workers) {
+            t.interrupt();
+        }
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    private boolean allQueuesEmpty() {
+        for (LinkedBlockingDeque<Runnable> q : queues) {
+            if (!q.isEmpty()) return false;
+        }
+        return true;
+    }
+
+    private class Worker implements Runnable {
+        private final int node;
+
+        Worker(int node) {
+            this.node = node;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Numa.runOnNode(node);
+                currentWorker.set(this);
+                final Thread self = Thread.currentThread();
+                long interval = STEAL_INTERVAL_MICROS;
+                while (!stopped) {
+                    Runnable task = poll();
+                    if (task == null) {
+                        if (shutdown && allQueuesEmpty()) break;
+                        // Look at the queues again after registering as idle,
+                        // so that a task submitted in between wakes this worker
+                        idleWorkers[node].add(self);
+                        task = poll();
+                        if (task == null && !shutdown) {
+                            LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(interval));
+                            interval = Math.min(interval * 2, MAX_STEAL_INTERVAL_MICROS);
+                            Thread.interrupted();
+                        }
+                        idleWorkers[node].remove(self);
+                        if (task == null) continue;
+                    }
+                    interval = STEAL_INTERVAL_MICROS;
+                    runTask(task);
+                }
+            } finally {
+                terminated.countDown();
+            }
+        }
+
+        private Runnable poll() {
+            final Runnable task = queues[node].pollFirst();
+            return (task != null)? task : steal();
+        }
+
+        private Runnable steal() {
+            for (int other : stealOrder[node]) {
+                final Runnable task = queues[other].pollLast();
+                if (task != null) {
+                    stolenCount.incrementAndGet();
+                    return task;
+                }
+            }
+            return null;
+        }
+
+        private void runTask(Runnable task) {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                // Keep the worker alive, unlike ThreadPoolExecutor
+                final Thread t = Thread.currentThread();
+                t.getUncaughtExceptionHandler().uncaughtException(t, e);
+            }
+        }
+    }
+}
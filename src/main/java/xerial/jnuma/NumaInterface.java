@@ -29,6 +29,11 @@ public interface NumaInterface {
     public int currentNode();
     public int currentCpu();
 
+    // Return the node of a given cpu, and the number
+    // of cpus configured in this machine
+    public int nodeOfCpu(int cpu);
+    public int numConfiguredCpus();
+
     // Return the amount of total and free memory
     // in a given node
     public long nodeSize(int node);
@@ -56,7 +61,25 @@ public interface NumaInterface {
     public long allocateInterleaved(long capacity);
     public void free(long address, long capacity);
 
+    // Allocate memory interleaved over the nodes in a bit mask
+    public long allocateInterleavedSubset(long capacity, long[] nodeBitMask);
+
+    // Populate pages in a given memory range, and return
+    // false if not supported
+    public boolean prefault(long address, long length);
+
+    // Allocate memory backed by huge pages on a node, and
+    // store the page size actually obtained
+    public long allocateHugePages(long capacity, int node, long hugePageSize, long[] obtainedPageSize);
+
     // Move a given memory range into the node
-    public void toNode(long address, int length, int node);
+    public void toNode(long address, long length, int node);
     public void toNode(Object array, int length, int node);
+
+    // Bind a given memory range to the nodes in a bit mask
+    public void toNodes(long address, long length, long[] nodeBitMask);
+
+    // Move the first count pages into the given nodes, and
+    // store the resulting node or negative errno of each page
+    public void movePages(int count, long[] pages, int[] nodes, int[] status);
 }
@@ -30,6 +30,8 @@ public class NumaNative implements NumaInterface {
     @Override public native int maxNode();
     @Override public native int currentNode();
     @Override public native int currentCpu();
+    @Override public native int nodeOfCpu(int cpu);
+    @Override public native int numConfiguredCpus();
     @Override public native long nodeSize(int node);
     @Override public native long freeSize(int node);
     @Override public native int distance(int node1, int node2);
@@ -44,8 +46,13 @@ public class NumaNative implements NumaInterface {
     @Override public native long allocateOnNode(long capacity, int node);
     @Override public native long allocateInterleaved(long capacity);
     @Override public native void free(long address, long capacity);
-    @Override public native void toNode(long address, int length, int node);
+    @Override public native long allocateInterleavedSubset(long capacity, long[] nodeBitMask);
+    @Override public native boolean prefault(long address, long length);
+    @Override public native long allocateHugePages(long capacity, int node, long hugePageSize, long[] obtainedPageSize);
+    @Override public native void toNode(long address, long length, int node);
     @Override public native void toNode(Object array, int length, int node);
+    @Override public native void toNodes(long address, long length, long[] nodeBitMask);
+    @Override public native void movePages(int count, long[] pages, int[] nodes, int[] status);
 
     // Used in a native code
     private void throwError(int errorCode) throws Exception {
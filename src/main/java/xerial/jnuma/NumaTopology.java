@@ -0,0 +1,259 @@
+/*
+ * Copyright 2012 Taro L. Saito
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of the NUMA topology: nodes, the CPUs of each
+ * node, the distance matrix and memory sizes. The snapshot is loaded
+ * once, so queries need no JNI call, and the current node is looked up
+ * from the current CPU in a cached table instead of libnuma.
+ *
+ * When a thread runs on a CPU unknown to the snapshot, e.g. one
+ * brought online by CPU hotplug, the snapshot is loaded again at most
+ * once a second. As libnuma caches the CPUs of each node, they are read
+ * from the cpulist files in sysfs if available.
+ * Call {@link #refresh()} to reload it explicitly.
+ */
+public final class NumaTopology {
+
+    // Reload a snapshot for unknown CPUs at most once in this interval
+    private static final long MIN_RELOAD_INTERVAL_NANOS = 1000L * 1000 * 1000;
+
+    private static volatile NumaTopology current = null;
+
+    private final int numNodes;
+    private final int[] cpuToNode;
+    private final int[][] cpusOfNode;
+    private final int[][] distances;
+    private final long[] nodeSizes;
+    private final long loadedAt;
+
+    // Load a snapshot from an implementation, and the CPUs of each
+    // node from sysfs under a given root if it describes them
+    NumaTopology(NumaInterface impl, File root) {
+        final NumaInterface cpuMap = cpuMapOf(impl, root);
+        this.numNodes = impl.maxNode() + 1;
+        this.cpuToNode = new int[Math.max(1, Math.max(impl.numConfiguredCpus(), cpuMap.numConfiguredCpus()))];
+        final int[] counts = new int[numNodes];
+        for (int cpu = 0; cpu < cpuToNode.length; cpu++) {
+            final int node = cpuMap.nodeOfCpu(cpu);
+            cpuToNode[cpu] = (node >= 0 && node < numNodes)? node : -1;
+            if (cpuToNode[cpu] >= 0) counts[cpuToNode[cpu]]++;
+        }
+        this.cpusOfNode = new int[numNodes][];
+        for (int n = 0; n < numNodes; n++) {
+            cpusOfNode[n] = new int[counts[n]];
+            counts[n] = 0;
+        }
+        for (int cpu = 0; cpu < cpuToNode.length; cpu++) {
+            final int node = cpuToNode[cpu];
+            if (node >= 0) cpusOfNode[node][counts[node]++] = cpu;
+        }
+        this.distances = new int[numNodes][numNodes];
+        this.nodeSizes = new long[numNodes];
+        for (int i = 0; i < numNodes; i++) {
+            for (int j = 0; j < numNodes; j++) {
+                distances[i][j] = impl.distance(i, j);
+            }
+            nodeSizes[i] = impl.nodeSize(i);
+        }
+        this.loadedAt = System.nanoTime();
+    }
+
+    private static NumaInterface cpuMapOf(NumaInterface impl, File root) {
+        if (SysfsNuma.isSupported(root)) {
+            try {
+                return new SysfsNuma(root);
+            } catch (IOException e) {
+                // Use the CPUs known to the implementation
+            }
+        }
+        return impl;
+    }
+
+    /**
+     * Return the current snapshot, which is loaded on the first call.
+     */
+    public static NumaTopology get() {
+        final NumaTopology t = current;
+        return (t != null)? t : refresh();
+    }
+
+    /**
+     * Load a new snapshot and make it current.
+     */
+    public static synchronized NumaTopology refresh() {
+        current = new NumaTopology(Numa.impl(), new File("/"));
+        return current;
+    }
+
+    // Re-check the CPU of a thread after this number of cached lookups
+    private static final int CPU_CHECK_INTERVAL =
+            Math.max(0, Integer.getInteger(Numa.CPU_CHECK_INTERVAL_KEY, 1024));
+
+    private static final ThreadLocal<CpuCache> cpuCache = new ThreadLocal<CpuCache>() {
+        @Override
+        protected CpuCache initialValue() {
+            return new CpuCache();
+        }
+    };
+
+    private static final class CpuCache {
+        int cpu = -1;
+        int node = -1;
+        int countdown = 0;
+    }
+
+    /**
+     * Return the node of the current thread. The CPU comes from
+     * sched_getcpu(3), which is served by vDSO without a system call.
+     */
+    static int currentNode() {
+        // Skip looking up the CPU, which reads procfs without libnuma
+        if (get().numNodes == 1) return 0;
+        return nodeOfCurrentCpu(Numa.impl().currentCpu());
+    }
+
+    // Return the CPU of the current thread cached per thread
+    static int cachedCurrentCpu() {
+        return cachedCpu().cpu;
+    }
+
+    // Return the node of the current thread cached per thread
+    static int cachedCurrentNode() {
+        if (get().numNodes == 1) return 0;
+        return cachedCpu().node;
+    }
+
+    private static CpuCache cachedCpu() {
+        final CpuCache c = cpuCache.get();
+        if (--c.countdown < 0) {
+            c.cpu = Numa.impl().currentCpu();
+            c.node = nodeOfCurrentCpu(c.cpu);
+            c.countdown = CPU_CHECK_INTERVAL;
+        }
+        return c;
+    }
+
+    // Make the next cached lookup of this thread re-check its CPU,
+    // e.g. after its affinity changes
+    static void invalidateCachedCpu() {
+        cpuCache.get().countdown = 0;
+    }
+
+    private static int nodeOfCurrentCpu(int cpu) {
+        NumaTopology t = get();
+        int node = t.nodeOfCpu(cpu);
+        if (node >= 0) return node;
+        // An unknown CPU stays unknown until the snapshot gets old enough
+        // to reload, so that it does not take the lock on every call
+        if (System.nanoTime() - t.loadedAt >= MIN_RELOAD_INTERVAL_NANOS) {
+            t = reloadForUnknownCpu(t);
+            node = t.nodeOfCpu(cpu);
+            if (node >= 0) return node;
+        }
+        return Numa.impl().currentNode();
+    }
+
+    private static synchronized NumaTopology reloadForUnknownCpu(NumaTopology seen) {
+        final NumaTopology t = current;
+        if (t != seen || System.nanoTime() - t.loadedAt < MIN_RELOAD_INTERVAL_NANOS) return t;
+        return refresh();
+    }
+
+    public int numNodes() {
+        return numNodes;
+    }
+
+    /**
+     * Return the number of CPUs configured in this machine.
+     */
+    public int numCPUs() {
+        return cpuToNode.length;
+    }
+
+    /**
+     * Return the node of a CPU, or -1 if the CPU is unknown.
+     */
+    public int nodeOfCpu(int cpu) {
+        return (cpu >= 0 && cpu < cpuToNode.length)? cpuToNode[cpu] : -1;
+    }
+
+    /**
+     * Return the CPUs of a node in ascending order.
+     */
+    public int[] cpusOf(int node) {
+        return cpusOfNode[node].clone();
+    }
+
+    /**
+     * Return the CPUs of given nodes.
+     */
+    public CpuSet cpusOf(NodeSet nodes) {
+        CpuSet cpus = CpuSet.EMPTY;
+        for (int n = nodes.first(); n >= 0 && n < numNodes; n = nodes.next(n + 1)) {
+            cpus = cpus.union(CpuSet.of(cpusOfNode[n]));
+        }
+        return cpus;
+    }
+
+    /**
+     * Return the nodes that given CPUs belong to.
+     */
+    public NodeSet nodesOf(CpuSet cpus) {
+        final int[] nodes = new int[cpus.size()];
+        int count = 0;
+        for (int cpu = cpus.first(); cpu >= 0; cpu = cpus.next(cpu + 1)) {
+            if (nodeOfCpu(cpu) >= 0) nodes[count++] = nodeOfCpu(cpu);
+        }
+        return NodeSet.of(Arrays.copyOf(nodes, count));
+    }
+
+    /**
+     * Return all the nodes.
+     */
+    public NodeSet nodes() {
+        return NodeSet.range(0, numNodes - 1);
+    }
+
+    public int distance(int node1, int node2) {
+        if (node1 < 0 || node1 >= numNodes || node2 < 0 || node2 >= numNodes)
+            return Numa.impl().distance(node1, node2);
+        return distances[node1][node2];
+    }
+
+    /**
+     * Return the memory size of a node when this snapshot is loaded.
+     */
+    public long nodeSize(int node) {
+        return nodeSizes[node];
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder b = new StringBuilder();
+        for (int n = 0; n < numNodes; n++) {
+            b.append(String.format("node %d: cpus %s, %d bytes, distances %s\n",
+                    n, Arrays.toString(cpusOfNode[n]), nodeSizes[n], Arrays.toString(distances[n])));
+        }
+        return b.toString();
+    }
+}
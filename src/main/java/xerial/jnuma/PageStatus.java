@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 Taro L. Saito
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma;
+
+/**
+ * The status of pages in memory ranges reported by move_pages(2).
+ * Each page has the node where it resides, or a negative errno
+ * (e.g., -ENOENT for a page not mapped yet) if the page could not
+ * be moved or queried.
+ */
+public final class PageStatus {
+    private final long[] addresses;
+    private final long[] lengths;
+    private final long step;
+    private final int[] status;
+
+    /**
+     * @param addresses page-aligned start addresses of the ranges
+     * @param lengths byte lengths of the ranges in multiples of the page size
+     * @param step byte distance between pages reported in a range
+     * @param status status of the pages in the ranges
+     */
+    PageStatus(long[] addresses, long[] lengths, long step, int[] status) {
+        this.addresses = addresses;
+        this.lengths = lengths;
+        this.step = step;
+        this.status = status;
+    }
+
+    public int numPages() {
+        return status.length;
+    }
+
+    /**
+     * Return the start address of the i-th page.
+     */
+    public long pageAddress(int i) {
+        long index = i;
+        for (int r = 0; r < addresses.length; r++) {
+            final long pages = (lengths[r] + step - 1) / step;
+            if (index < pages) return addresses[r] + index * step;
+            index -= pages;
+        }
+        throw new IndexOutOfBoundsException("page " + i);
+    }
+
+    /**
+     * Return the node of the i-th page, or a negative errno.
+     */
+    public int status(int i) {
+        return status[i];
+    }
+
+    /**
+     * Return the number of pages on a given node.
+     */
+    public int numPagesOnNode(int node) {
+        int n = 0;
+        for (int s : status) {
+            if (s == node) n++;
+        }
+        return n;
+    }
+
+    /**
+     * Return a histogram of the number of pages on each node.
+     * Pages with an error are counted in {@link #numFailedPages()}.
+     */
+    public int[] nodeHistogram() {
+        final int[] histogram = new int[Numa.numNodes()];
+        for (int s : status) {
+            if (s >= 0 && s < histogram.length) histogram[s]++;
+        }
+        return histogram;
+    }
+
+    /**
+     * Return the number of pages with an error.
+     */
+    public int numFailedPages() {
+        int n = 0;
+        for (int s : status) {
+            if (s < 0) n++;
+        }
+        return n;
+    }
+}
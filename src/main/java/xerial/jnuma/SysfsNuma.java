@@ -0,0 +1,246 @@
+/*
+ * Copyright 2012 Taro L. Saito
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A pure-Java implementation that reads the NUMA topology from sysfs
+ * and procfs when the native library is not available, e.g. in a
+ * container without libnuma. Topology and memory queries are correct,
+ * while allocations and bindings fall back on {@link NoNuma} because
+ * they need system calls.
+ *
+ * The topology (nodes, CPUs and distances) is read once, and memory
+ * sizes are read from the meminfo of each node on every query.
+ */
+public class SysfsNuma extends NoNuma {
+
+    private final File nodeDir;
+    private final File procDir;
+
+    private final int[] nodes;
+    private final int maxNode;
+    private final int[] cpuToNode;
+    private final int[][] distances;
+
+    /**
+     * Read the topology of this machine.
+     */
+    public SysfsNuma() throws IOException {
+        this(new File("/"));
+    }
+
+    /**
+     * Read the topology from sys/ and proc/ under a given root,
+     * which tests may point to a fake tree.
+     */
+    public SysfsNuma(File root) throws IOException {
+        this.nodeDir = new File(root, "sys/devices/system/node");
+        this.procDir = new File(root, "proc");
+        this.nodes = onlineNodes(nodeDir);
+        if (nodes.length == 0)
+            throw new IOException("No NUMA node found in " + nodeDir);
+        this.maxNode = nodes[nodes.length - 1];
+
+        final List<int[]> cpuLists = new ArrayList<int[]>();
+        int maxCpu = -1;
+        for (int node : nodes) {
+            final int[] cpus = CpuSet.parse(readFirstLine(nodeFile(node, "cpulist"))).toArray();
+            cpuLists.add(cpus);
+            for (int cpu : cpus) {
+                maxCpu = Math.max(maxCpu, cpu);
+            }
+        }
+        this.cpuToNode = new int[maxCpu + 1];
+        Arrays.fill(cpuToNode, -1);
+        for (int i = 0; i < nodes.length; i++) {
+            for (int cpu : cpuLists.get(i)) {
+                cpuToNode[cpu] = nodes[i];
+            }
+        }
+
+        // A distance file lists distances to online nodes in order
+        this.distances = new int[maxNode + 1][maxNode + 1];
+        for (int node : nodes) {
+            final String[] values = readFirstLine(nodeFile(node, "distance")).trim().split("\\s+");
+            for (int i = 0; i < nodes.length && i < values.length; i++) {
+                distances[node][nodes[i]] = Integer.parseInt(values[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns true if a sysfs tree under a given root describes NUMA nodes.
+     */
+    public static boolean isSupported(File root) {
+        final File dir = new File(root, "sys/devices/system/node");
+        return new File(dir, "online").exists() || new File(dir, "node0").isDirectory();
+    }
+
+    private static int[] onlineNodes(File nodeDir) throws IOException {
+        final File online = new File(nodeDir, "online");
+        if (online.exists()) return NodeSet.parse(readFirstLine(online)).toArray();
+        // Scan node directories if the online list is missing
+        final List<Integer> found = new ArrayList<Integer>();
+        final String[] names = nodeDir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.matches("node\\d+")) found.add(Integer.parseInt(name.substring(4)));
+            }
+        }
+        final int[] nodes = new int[found.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = found.get(i);
+        }
+        Arrays.sort(nodes);
+        return nodes;
+    }
+
+    private File nodeFile(int node, String name) {
+        return new File(new File(nodeDir, "node" + node), name);
+    }
+
+    private static String readFirstLine(File f) throws IOException {
+        final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+        try {
+            final String line = in.readLine();
+            return (line != null)? line : "";
+        } finally {
+            in.close();
+        }
+    }
+
+    private static List<String> readLines(File f) throws IOException {
+        final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+        try {
+            final List<String> lines = new ArrayList<String>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+            return lines;
+        } finally {
+            in.close();
+        }
+    }
+
+    // Return the status file of the current thread, or of the process
+    // on kernels older than 3.17
+    private File procFile(int pid, String name) {
+        if (pid != 0) return new File(new File(procDir, Integer.toString(pid)), name);
+        final File thread = new File(new File(procDir, "thread-self"), name);
+        return thread.exists()? thread : new File(new File(procDir, "self"), name);
+    }
+
+    @Override
+    public int maxNode() {
+        return maxNode;
+    }
+
+    @Override
+    public int currentNode() {
+        // Avoid reading procfs when there is no other node
+        if (nodes.length == 1) return nodes[0];
+        return nodeOfCpu(currentCpu());
+    }
+
+    /**
+     * Return the CPU that the current thread last ran on, which is
+     * the 39th field of /proc/thread-self/stat.
+     */
+    @Override
+    public int currentCpu() {
+        try {
+            final String stat = readFirstLine(procFile(0, "stat"));
+            // The command name in parentheses may contain spaces
+            final String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            return Integer.parseInt(fields[39 - 3]);
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public int nodeOfCpu(int cpu) {
+        return (cpu >= 0 && cpu < cpuToNode.length)? cpuToNode[cpu] : -1;
+    }
+
+    @Override
+    public int numConfiguredCpus() {
+        return cpuToNode.length;
+    }
+
+    @Override
+    public long nodeSize(int node) {
+        return meminfo(node, "MemTotal:");
+    }
+
+    @Override
+    public long freeSize(int node) {
+        return meminfo(node, "MemFree:");
+    }
+
+    // Read a field of a node meminfo like "Node 0 MemFree:  5132316 kB"
+    private long meminfo(int node, String field) {
+        try {
+            for (String line : readLines(nodeFile(node, "meminfo"))) {
+                final String[] tokens = line.trim().split("\\s+");
+                if (tokens.length >= 4 && tokens[2].equals(field)) {
+                    final long value = Long.parseLong(tokens[3]);
+                    return (tokens.length >= 5 && tokens[4].equalsIgnoreCase("kB"))? value * 1024 : value;
+                }
+            }
+        } catch (IOException e) {
+            // Fall through
+        }
+        return 0L;
+    }
+
+    @Override
+    public int distance(int node1, int node2) {
+        if (node1 < 0 || node1 > maxNode || node2 < 0 || node2 > maxNode) return 0;
+        return distances[node1][node2];
+    }
+
+    /**
+     * Read the CPUs allowed for a task from Cpus_allowed_list in
+     * /proc/[pid]/status, where pid 0 means the current thread.
+     */
+    @Override
+    public void getAffinity(int pid, long[] cpuBitMask, int numCPUs) {
+        try {
+            for (String line : readLines(procFile(pid, "status"))) {
+                if (line.startsWith("Cpus_allowed_list:")) {
+                    final long[] allowed = CpuSet.parse(line.substring("Cpus_allowed_list:".length())).toMask();
+                    Arrays.fill(cpuBitMask, 0L);
+                    System.arraycopy(allowed, 0, cpuBitMask, 0, Math.min(allowed.length, cpuBitMask.length));
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // Leave the mask as it is
+        }
+    }
+}
@@ -17,14 +17,29 @@
 
 package xerial.jnuma.buffer;
 
+import xerial.jnuma.Numa;
+import xerial.jnuma.PageStatus;
 import xerial.jnuma.utils.PlatformDependent;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+abstract class ByteBufferLikeApi implements AutoCloseable {
+
+    // The size of views by toDirectByteBuffers(), which keeps
+    // every view aligned to pages including 1GB huge pages
+    public static final int MAX_WINDOW_SIZE = 1 << 30;
 
-abstract class ByteBufferLikeApi {
     private Memory m;
 
+    // The number of owners of this buffer. The memory returns
+    // to the node when the last owner releases it.
+    private volatile int refCnt = 1;
+
+    private static final AtomicIntegerFieldUpdater<ByteBufferLikeApi> REF_CNT =
+            AtomicIntegerFieldUpdater.newUpdater(ByteBufferLikeApi.class, "refCnt");
+
     public ByteBufferLikeApi(Memory m) {
         this.m = m;
     }
@@ -45,17 +60,121 @@ abstract class ByteBufferLikeApi {
         putByte(offset, value);
     }
 
+    /**
+     * Return the current reference count.
+     */
+    public int refCnt() {
+        return refCnt;
+    }
+
+    /**
+     * Increase the reference count by one. Call this before handing
+     * this buffer over to another owner that will release it.
+     * @return this buffer
+     */
+    public ByteBufferLikeApi retain() {
+        while (true) {
+            final int c = refCnt;
+            if (c <= 0)
+                throw new IllegalStateException("Buffer already released");
+            if (REF_CNT.compareAndSet(this, c, c + 1)) return this;
+        }
+    }
+
+    // Same as retain(), but fail instead of throwing once released
+    boolean tryRetain() {
+        while (true) {
+            final int c = refCnt;
+            if (c <= 0) return false;
+            if (REF_CNT.compareAndSet(this, c, c + 1)) return true;
+        }
+    }
+
+    /**
+     * Decrease the reference count by one, and release the memory
+     * when the count reaches zero.
+     */
     public void release() {
-        NumaBufferConfig.allocator.release(m);
-        m = null;
+        release(true);
+    }
+
+    /**
+     * Same as {@link #release()}, but tell whether this call freed the memory.
+     * @return true if the memory is released
+     */
+    public boolean releaseAndCheck() {
+        return release(true);
+    }
+
+    /**
+     * Same as {@link #release()}, but closing a released buffer does nothing.
+     */
+    @Override
+    public void close() {
+        release(false);
+    }
+
+    private boolean release(boolean strict) {
+        while (true) {
+            final int c = refCnt;
+            if (c <= 0) {
+                if (strict)
+                    throw new IllegalStateException("Buffer already released");
+                return false;
+            }
+            if (REF_CNT.compareAndSet(this, c, c - 1)) {
+                if (c > 1) return false;
+                NumaBufferConfig.allocator.release(m);
+                m = null;
+                return true;
+            }
+        }
     }
 
     public long address() {
-        return m.address();
+        return memory().address();
     }
 
     public long size() {
-        return m.size();
+        return memory().size();
+    }
+
+    /**
+     * Return the node where this buffer is allocated.
+     */
+    public int node() {
+        return memory().node();
+    }
+
+    private Memory memory() {
+        final Memory mem = m;
+        if (mem == null)
+            throw new IllegalStateException("Buffer already released");
+        return mem;
+    }
+
+    /**
+     * Return the size of pages backing this buffer, which tells
+     * whether huge pages are actually obtained.
+     */
+    public long pageSize() {
+        return memory().pageSize();
+    }
+
+    /**
+     * Query the node where each page of this buffer actually resides,
+     * which may differ from {@link #node()} if the pages are first
+     * touched by a thread on another node.
+     */
+    public PageStatus residency() {
+        return Numa.queryPages(address(), size());
+    }
+
+    /**
+     * Query the node of every stride-th page of this buffer.
+     */
+    public PageStatus residency(int stride) {
+        return Numa.queryPages(address(), size(), stride);
     }
 
     public void clear() {
@@ -114,6 +233,169 @@ abstract class ByteBufferLikeApi {
         PlatformDependent.UNSAFE.putDouble(address() + offset, value);
     }
 
+    /**
+     * Copy elements from this buffer into an array. Large copies are
+     * split into chunks so that safepoints are not stalled.
+     * @param offset byte offset in this buffer
+     * @param dst destination array
+     * @param index first index of the array to store elements
+     * @param length the number of elements to copy
+     */
+    public void get(long offset, byte[] dst, int index, int length) {
+        checkArrayRange(dst.length, index, length);
+        copyToArray(offset, dst, PlatformDependent.UNSAFE.BYTE_ARRAY_OFFSET, index, length, 0);
+    }
+
+    /**
+     * Copy elements from an array into this buffer.
+     * @param offset byte offset in this buffer
+     * @param src source array
+     * @param index first index of the array to read elements
+     * @param length the number of elements to copy
+     */
+    public void put(long offset, byte[] src, int index, int length) {
+        checkArrayRange(src.length, index, length);
+        copyFromArray(offset, src, PlatformDependent.UNSAFE.BYTE_ARRAY_OFFSET, index, length, 0);
+    }
+
+    public void get(long offset, short[] dst, int index, int length) {
+        checkArrayRange(dst.length, index, length);
+        copyToArray(offset, dst, PlatformDependent.UNSAFE.SHORT_ARRAY_OFFSET, index, length, 1);
+    }
+
+    public void put(long offset, short[] src, int index, int length) {
+        checkArrayRange(src.length, index, length);
+        copyFromArray(offset, src, PlatformDependent.UNSAFE.SHORT_ARRAY_OFFSET, index, length, 1);
+    }
+
+    public void get(long offset, int[] dst, int index, int length) {
+        checkArrayRange(dst.length, index, length);
+        copyToArray(offset, dst, PlatformDependent.UNSAFE.INT_ARRAY_OFFSET, index, length, 2);
+    }
+
+    public void put(long offset, int[] src, int index, int length) {
+        checkArrayRange(src.length, index, length);
+        copyFromArray(offset, src, PlatformDependent.UNSAFE.INT_ARRAY_OFFSET, index, length, 2);
+    }
+
+    public void get(long offset, long[] dst, int index, int length) {
+        checkArrayRange(dst.length, index, length);
+        copyToArray(offset, dst, PlatformDependent.UNSAFE.LONG_ARRAY_OFFSET, index, length, 3);
+    }
+
+    public void put(long offset, long[] src, int index, int length) {
+        checkArrayRange(src.length, index, length);
+        copyFromArray(offset, src, PlatformDependent.UNSAFE.LONG_ARRAY_OFFSET, index, length, 3);
+    }
+
+    public void get(long offset, float[] dst, int index, int length) {
+        checkArrayRange(dst.length, index, length);
+        copyToArray(offset, dst, PlatformDependent.UNSAFE.FLOAT_ARRAY_OFFSET, index, length, 2);
+    }
+
+    public void put(long offset, float[] src, int index, int length) {
+        checkArrayRange(src.length, index, length);
+        copyFromArray(offset, src, PlatformDependent.UNSAFE.FLOAT_ARRAY_OFFSET, index, length, 2);
+    }
+
+    public void get(long offset, double[] dst, int index, int length) {
+        checkArrayRange(dst.length, index, length);
+        copyToArray(offset, dst, PlatformDependent.UNSAFE.DOUBLE_ARRAY_OFFSET, index, length, 3);
+    }
+
+    public void put(long offset, double[] src, int index, int length) {
+        checkArrayRange(src.length, index, length);
+        copyFromArray(offset, src, PlatformDependent.UNSAFE.DOUBLE_ARRAY_OFFSET, index, length, 3);
+    }
+
+    public void get(long offset, byte[] dst) {
+        get(offset, dst, 0, dst.length);
+    }
+
+    public void put(long offset, byte[] src) {
+        put(offset, src, 0, src.length);
+    }
+
+    public void get(long offset, short[] dst) {
+        get(offset, dst, 0, dst.length);
+    }
+
+    public void put(long offset, short[] src) {
+        put(offset, src, 0, src.length);
+    }
+
+    public void get(long offset, int[] dst) {
+        get(offset, dst, 0, dst.length);
+    }
+
+    public void put(long offset, int[] src) {
+        put(offset, src, 0, src.length);
+    }
+
+    public void get(long offset, long[] dst) {
+        get(offset, dst, 0, dst.length);
+    }
+
+    public void put(long offset, long[] src) {
+        put(offset, src, 0, src.length);
+    }
+
+    public void get(long offset, float[] dst) {
+        get(offset, dst, 0, dst.length);
+    }
+
+    public void put(long offset, float[] src) {
+        put(offset, src, 0, src.length);
+    }
+
+    public void get(long offset, double[] dst) {
+        get(offset, dst, 0, dst.length);
+    }
+
+    public void put(long offset, double[] src) {
+        put(offset, src, 0, src.length);
+    }
+
+    /**
+     * Copy bytes from another buffer into this buffer.
+     * The ranges may overlap when both are this buffer.
+     * @param offset byte offset in this buffer
+     * @param src source buffer
+     * @param srcOffset byte offset in the source buffer
+     * @param length the number of bytes to copy
+     */
+    public void put(long offset, ByteBufferLikeApi src, long srcOffset, long length) {
+        src.checkRange(srcOffset, length);
+        checkRange(offset, length);
+        PlatformDependent.UNSAFE.copyMemory(src.address() + srcOffset, address() + offset, length);
+    }
+
+    private void copyToArray(long offset, Object dst, long base, int index, int length, int shift) {
+        final long bytes = (long) length << shift;
+        checkRange(offset, bytes);
+        PlatformDependent.UNSAFE.copyMemory(
+                null, address() + offset, dst, base + ((long) index << shift), bytes);
+    }
+
+    private void copyFromArray(long offset, Object src, long base, int index, int length, int shift) {
+        final long bytes = (long) length << shift;
+        checkRange(offset, bytes);
+        PlatformDependent.UNSAFE.copyMemory(
+                src, base + ((long) index << shift), null, address() + offset, bytes);
+    }
+
+    void checkRange(long offset, long length) {
+        if (offset < 0 || length < 0 || offset > size() - length)
+            throw new IndexOutOfBoundsException(String.format(
+                    "offset:%d, length:%d, size:%d", offset, length, size()));
+    }
+
+    private static void checkArrayRange(int arrayLength, int index, int length) {
+        if (index < 0 || length < 0 || index > arrayLength - length)
+            throw new IndexOutOfBoundsException(String.format(
+                    "index:%d, length:%d, array length:%d", index, length, arrayLength));
+    }
+
     /**
      * Return a ByteBuffer view of the specified range.
      * Writing to the returned ByteBuffer modifies
@@ -123,21 +405,56 @@ abstract class ByteBufferLikeApi {
      * @return new ByteBuffer
      */
     public ByteBuffer toDirectByteBuffer(long offset, int size) {
+        checkRange(offset, size);
         ByteBuffer bb = PlatformDependent.newDirectByteBuffer(address() + offset, size);
         bb.order(ByteOrder.nativeOrder());
         return bb;
     }
 
     public ByteBuffer toDirectByteBuffer() {
-        if (m.size() > Integer.MAX_VALUE) {
+        if (size() > Integer.MAX_VALUE) {
             // Turn the exception into unchecked so we can find out
             // about it at runtime, but don't need
             // to add lots of boilerplate code everywhere.
             PlatformDependent.throwException(
-                    new IllegalStateException("Allowable 32-bit size exceeded: " + m.size()));
+                    new IllegalStateException("Allowable 32-bit size exceeded: " + size()
+                            + "; use toDirectByteBuffers() instead"));
         }
-        ByteBuffer bb = PlatformDependent.newDirectByteBuffer(address(), (int) m.size());
+        ByteBuffer bb = PlatformDependent.newDirectByteBuffer(address(), (int) size());
         bb.order(ByteOrder.nativeOrder());
         return bb;
     }
+
+    /**
+     * Return ByteBuffer views that cover this whole buffer in order,
+     * which works beyond 2GB. The views can be passed to
+     * {@link java.nio.channels.GatheringByteChannel#write(ByteBuffer[])}.
+     */
+    public ByteBuffer[] toDirectByteBuffers() {
+        return toDirectByteBuffers(0, size(), MAX_WINDOW_SIZE);
+    }
+
+    /**
+     * Return ByteBuffer views that cover the specified range in order.
+     * Views do not keep this buffer alive, so they must not be used
+     * after this buffer is released.
+     * @param offset byte offset of the range
+     * @param length byte length of the range
+     * @param windowSize the largest size of a view
+     * @return views of the range, each but the last of which has windowSize bytes
+     */
+    public ByteBuffer[] toDirectByteBuffers(long offset, long length, int windowSize) {
+        checkRange(offset, length);
+        if (windowSize <= 0)
+            throw new IllegalArgumentException("Invalid window size: " + windowSize);
+        final long n = (length + windowSize - 1) / windowSize;
+        if (n > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many windows of " + windowSize + " bytes: " + n);
+        final ByteBuffer[] views = new ByteBuffer[(int) n];
+        for (int i = 0; i < views.length; i++) {
+            final long begin = offset + (long) i * windowSize;
+            views[i] = toDirectByteBuffer(begin, (int) Math.min(windowSize, offset + length - begin));
+        }
+        return views;
+    }
 }
@@ -22,6 +22,8 @@ import java.lang.ref.ReferenceQueue;
 interface Memory {
     long address();
     long size();
+    int node();
+    long pageSize();
     void release();
     MemoryReference toRef(ReferenceQueue<Memory> queue);
 }
\ No newline at end of file
@@ -19,6 +19,7 @@ package xerial.jnuma.buffer;
 
 import java.lang.ref.PhantomReference;
 import java.lang.ref.ReferenceQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * Phantom reference to the allocated memory that will be queued
@@ -28,6 +29,15 @@ abstract class MemoryReference extends PhantomReference<Memory> {
     public final long address;
     public final long size;
 
+    // 1 while the memory is used by a buffer, 0 once released
+    private volatile int inUse = 1;
+
+    private static final AtomicIntegerFieldUpdater<MemoryReference> IN_USE =
+            AtomicIntegerFieldUpdater.newUpdater(MemoryReference.class, "inUse");
+
+    // Where the memory is allocated, or null if not recorded
+    private Throwable allocationSite = null;
+
     /**
      * Create a phantom reference for a given Memory.
      * @param m the allocated memory
@@ -40,6 +50,29 @@ abstract class MemoryReference extends PhantomReference<Memory> {
         this.size = m.size();
     }
 
+    /**
+     * Mark the memory released.
+     * @return false if the memory has already been released
+     */
+    public boolean markReleased() {
+        return IN_USE.compareAndSet(this, 1, 0);
+    }
+
+    /**
+     * Mark the memory used again when it is recycled.
+     */
+    public void markInUse() {
+        inUse = 1;
+    }
+
+    public Throwable allocationSite() {
+        return allocationSite;
+    }
+
+    public void setAllocationSite(Throwable site) {
+        this.allocationSite = site;
+    }
+
     abstract public Memory toMemory();
     abstract public String name();
 }
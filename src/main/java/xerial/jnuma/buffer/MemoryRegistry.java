@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.buffer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A lock-free registry from addresses to MemoryReferences, striped
+ * per NUMA node. Each stripe is an open-addressing table keyed by
+ * primitive addresses, so registering memory creates no boxed keys.
+ *
+ * Slots never go back to empty; a removed slot becomes a tombstone
+ * that later insertions reuse. Hence a lookup from the home slot of
+ * an address always reaches its entry before an empty slot. When a
+ * table runs short of fresh slots, a table of double capacity is
+ * pushed in front of it and the older tables are only drained. An
+ * older table is sealed and unlinked once its last entry is removed,
+ * so a stripe retains the current table and the older tables that
+ * still hold live entries.
+ */
+final class MemoryRegistry {
+
+    private static final long EMPTY = 0L;
+    private static final long TOMBSTONE = -1L;
+
+    private final Stripe[] stripes;
+
+    public MemoryRegistry(int numStripes, int initialCapacity) {
+        this.stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            stripes[i] = new Stripe(initialCapacity);
+        }
+    }
+
+    public void register(MemoryReference ref, int node) {
+        stripes[node].put(ref);
+    }
+
+    /**
+     * Remove a reference from this registry.
+     * @return false if the reference has already been removed
+     */
+    public boolean unregister(MemoryReference ref, int node) {
+        return stripes[node].remove(ref);
+    }
+
+    private static final class Stripe {
+        private volatile Table current;
+
+        private static final AtomicReferenceFieldUpdater<Stripe, Table> CURRENT =
+                AtomicReferenceFieldUpdater.newUpdater(Stripe.class, Table.class, "current");
+
+        Stripe(int initialCapacity) {
+            this.current = new Table(initialCapacity, null);
+        }
+
+        void put(MemoryReference ref) {
+            while (true) {
+                final Table t = current;
+                if (t.put(ref)) return;
+                // Another thread may have already grown or sealed the table
+                if (t == current) {
+                    CURRENT.compareAndSet(this, t, new Table(t.capacity() * 2, t));
+                } else if (t.sealIfEmpty()) {
+                    unlink(t);
+                }
+            }
+        }
+
+        boolean remove(MemoryReference ref) {
+            for (Table t = current; t != null; t = t.older) {
+                if (t.remove(ref)) {
+                    // A table never becomes current again once it is replaced
+                    if (t != current && t.sealIfEmpty()) unlink(t);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Drop a sealed table from the chain; lookups that are walking
+        // through it still reach the tables behind it
+        private synchronized void unlink(Table sealed) {
+            for (Table t = current; t != null; t = t.older) {
+                if (t.older == sealed) {
+                    t.older = sealed.older;
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final class Table {
+        private final AtomicLongArray keys;
+        private final AtomicReferenceArray<MemoryReference> values;
+        private final int mask;
+        private final int shift;
+
+        // The number of slots claimed from empty
+        private final AtomicInteger used = new AtomicInteger(0);
+
+        // The number of live entries and ongoing insertions,
+        // or -1 if this table is sealed
+        private final AtomicInteger live = new AtomicInteger(0);
+
+        volatile Table older;
+
+        Table(int capacity, Table older) {
+            final int c = Math.max(16, Integer.highestOneBit(capacity - 1) << 1);
+            this.keys = new AtomicLongArray(c);
+            this.values = new AtomicReferenceArray<MemoryReference>(c);
+            this.mask = c - 1;
+            this.shift = 64 - Integer.numberOfTrailingZeros(c);
+            this.older = older;
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+
+        private int home(long address) {
+            return (int) (((address >>> 4) * 0x9E3779B97F4A7C15L) >>> shift);
+        }
+
+        /**
+         * Insert a reference.
+         * @return false if this table is too full to insert it
+         */
+        boolean put(MemoryReference ref) {
+            // Count the insertion in advance so that this table
+            // is not sealed while it is going on
+            int l;
+            do {
+                l = live.get();
+                if (l < 0) return false;
+            } while (!live.compareAndSet(l, l + 1));
+            if (insert(ref)) return true;
+            live.decrementAndGet();
+            return false;
+        }
+
+        private boolean insert(MemoryReference ref) {
+            final long address = ref.address;
+            for (int i = home(address), n = 0; n <= mask; i = (i + 1) & mask, n++) {
+                final long k = keys.get(i);
+                if (k == TOMBSTONE && keys.compareAndSet(i, TOMBSTONE, address)) {
+                    values.set(i, ref);
+                    return true;
+                }
+                if (k == EMPTY) {
+                    // Keep the load factor of claimed slots under 3/4
+                    if (used.get() >= capacity() - (capacity() >>> 2)) return false;
+                    if (keys.compareAndSet(i, EMPTY, address)) {
+                        used.incrementAndGet();
+                        values.set(i, ref);
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        boolean remove(MemoryReference ref) {
+            final long address = ref.address;
+            for (int i = home(address), n = 0; n <= mask; i = (i + 1) & mask, n++) {
+                final long k = keys.get(i);
+                if (k == EMPTY) return false;
+                if (k == address && values.compareAndSet(i, ref, null)) {
+                    keys.set(i, TOMBSTONE);
+                    live.decrementAndGet();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Seal this table if it has no entry, so that no entry is put later.
+         * @return true if this call sealed the table
+         */
+        boolean sealIfEmpty() {
+            return live.compareAndSet(0, -1);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.buffer;
+
+/**
+ * Measured costs of accessing memory on each node from CPUs on each
+ * node, indexed by [cpu node][memory node]. Unlike
+ * {@link xerial.jnuma.Numa#distance(int, int)}, which reports the
+ * SLIT table of the firmware, the values come from {@link NumaProbe}.
+ */
+public final class NodeCostMatrix {
+
+    private final double[][] readBandwidth;
+    private final double[][] writeBandwidth;
+    private final double[][] latencyNanos;
+
+    NodeCostMatrix(double[][] readBandwidth, double[][] writeBandwidth, double[][] latencyNanos) {
+        this.readBandwidth = readBandwidth;
+        this.writeBandwidth = writeBandwidth;
+        this.latencyNanos = latencyNanos;
+    }
+
+    public int numNodes() {
+        return latencyNanos.length;
+    }
+
+    /**
+     * Return the sequential read bandwidth in GB/s.
+     */
+    public double readBandwidth(int cpuNode, int memoryNode) {
+        return readBandwidth[cpuNode][memoryNode];
+    }
+
+    /**
+     * Return the sequential write bandwidth in GB/s.
+     */
+    public double writeBandwidth(int cpuNode, int memoryNode) {
+        return writeBandwidth[cpuNode][memoryNode];
+    }
+
+    /**
+     * Return the latency of a dependent load in nanoseconds.
+     */
+    public double latency(int cpuNode, int memoryNode) {
+        return latencyNanos[cpuNode][memoryNode];
+    }
+
+    /**
+     * Return the latency scaled so that local access is 10,
+     * which is comparable with {@link xerial.jnuma.Numa#distance(int, int)}.
+     */
+    public int distance(int cpuNode, int memoryNode) {
+        final double local = latencyNanos[cpuNode][cpuNode];
+        if (local <= 0.0) return 10;
+        return (int) Math.round(10.0 * latencyNanos[cpuNode][memoryNode] / local);
+    }
+
+    /**
+     * Return the memory nodes sorted from the cheapest to access
+     * from a given CPU node.
+     */
+    public int[] nodesByLatency(int cpuNode) {
+        final int n = numNodes();
+        final int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        // Insertion sort suffices for the number of nodes
+        for (int i = 1; i < n; i++) {
+            final int node = order[i];
+            int j = i - 1;
+            while (j >= 0 && latencyNanos[cpuNode][order[j]] > latencyNanos[cpuNode][node]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = node;
+        }
+        return order;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder b = new StringBuilder();
+        b.append("cpu\\mem  read(GB/s) write(GB/s) latency(ns)\n");
+        for (int c = 0; c < numNodes(); c++) {
+            for (int m = 0; m < numNodes(); m++) {
+                b.append(String.format("%3d %3d  %10.2f %11.2f %11.1f\n",
+                        c, m, readBandwidth[c][m], writeBandwidth[c][m], latencyNanos[c][m]));
+            }
+        }
+        return b.toString();
+    }
+}
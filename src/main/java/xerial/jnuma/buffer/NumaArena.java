@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.buffer;
+
+import xerial.jnuma.Numa;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An arena bound to a single NUMA node. It carves power-of-two
+ * sized chunks out of large regions allocated on the node and
+ * recycles released chunks, so small allocations do not need
+ * a mmap call (and its page faults) each.
+ *
+ * An arena can keep a reserve of regions whose pages are populated
+ * in advance on a background thread running on the node, so that
+ * carving a new region does not take page faults on the request path.
+ * The reserve threads are shared by all the arenas, one per node, and
+ * exit when they have been idle for a while.
+ */
+final class NumaArena {
+
+    // The smallest chunk keeps 16-byte alignment
+    static final int MIN_CHUNK_SHIFT = 4;
+
+    private final int node;
+    private final long regionSize;
+    private final int maxChunkShift;
+
+    // Free lists of recycled chunks for each size class
+    private final LongStack[] freeLists;
+
+    // A bump pointer into the latest region allocated from the node
+    private long cursor = 0L;
+    private long limit = 0L;
+
+    // Hold the amount of memory reserved from the node
+    private final AtomicLong reservedSize = new AtomicLong(0);
+
+    // Pre-faulted regions filled by a background thread, or null
+    private final BlockingQueue<Long> readyRegions;
+
+    /**
+     * Create an arena on a given node.
+     * @param node node number
+     * @param regionSize byte size of a region allocated at a time
+     * @param maxChunkSize the largest allocation served by this arena,
+     *                     which must be a power of two
+     */
+    public NumaArena(int node, long regionSize, long maxChunkSize) {
+        this(node, regionSize, maxChunkSize, 0);
+    }
+
+    /**
+     * Create an arena on a given node.
+     * @param node node number
+     * @param regionSize byte size of a region allocated at a time
+     * @param maxChunkSize the largest allocation served by this arena,
+     *                     which must be a power of two
+     * @param reserveRegions the number of pre-faulted regions kept
+     *                       in reserve, or 0 to disable the reserve
+     */
+    public NumaArena(int node, long regionSize, long maxChunkSize, int reserveRegions) {
+        if (Long.bitCount(maxChunkSize) != 1 || maxChunkSize < (1L << MIN_CHUNK_SHIFT))
+            throw new IllegalArgumentException("Invalid max chunk size: " + maxChunkSize);
+        if (regionSize < maxChunkSize)
+            throw new IllegalArgumentException(
+                    "Region size must not be smaller than " + maxChunkSize + ": " + regionSize);
+        this.node = node;
+        this.regionSize = regionSize;
+        this.maxChunkShift = Long.numberOfTrailingZeros(maxChunkSize);
+        this.freeLists = new LongStack[maxChunkShift - MIN_CHUNK_SHIFT + 1];
+        for (int i = 0; i < freeLists.length; i++) {
+            freeLists[i] = new LongStack();
+        }
+        if (reserveRegions > 0) {
+            this.readyRegions = new ArrayBlockingQueue<Long>(reserveRegions);
+            for (int i = 0; i < reserveRegions; i++) {
+                refillReserve();
+            }
+        } else {
+            this.readyRegions = null;
+        }
+    }
+
+    // Add a pre-faulted region to the reserve on the reserve thread of the node
+    private void refillReserve() {
+        reserveThread(node).execute(new Runnable() {
+            @Override
+            public void run() {
+                final long region = Numa.allocateOnNode(regionSize, node);
+                reservedSize.getAndAdd(regionSize);
+                Numa.prefault(region, regionSize);
+                readyRegions.add(region);
+            }
+        });
+    }
+
+    // Reserve threads shared by all the arenas, created on demand
+    private static ExecutorService[] reserveThreads = null;
+
+    private static synchronized ExecutorService reserveThread(final int node) {
+        if (reserveThreads == null) {
+            reserveThreads = new ExecutorService[Numa.numNodes()];
+        }
+        if (reserveThreads[node] == null) {
+            final ThreadPoolExecutor e = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Numa.runOnNode(node);
+                            r.run();
+                        }
+                    }, "jnuma-arena-reserve-node" + node);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            // Exit when idle, so no thread lingers once arenas are unused
+            e.allowCoreThreadTimeOut(true);
+            reserveThreads[node] = e;
+        }
+        return reserveThreads[node];
+    }
+
+    public int node() {
+        return node;
+    }
+
+    /**
+     * Returns true if this arena serves the given size.
+     */
+    public boolean accepts(long size) {
+        return size > 0 && size <= (1L << maxChunkShift);
+    }
+
+    static int sizeClass(long size) {
+        return Math.max(MIN_CHUNK_SHIFT, 64 - Long.numberOfLeadingZeros(size - 1));
+    }
+
+    // Return the amount of memory reserved from the node
+    public long reservedSize() {
+        return reservedSize.get();
+    }
+
+    public long allocate(long size) {
+        assert(accepts(size));
+        final int sc = sizeClass(size);
+        final LongStack free = freeLists[sc - MIN_CHUNK_SHIFT];
+        synchronized(free) {
+            if (!free.isEmpty()) return free.pop();
+        }
+        return carve(sc);
+    }
+
+    public void free(long address, long size) {
+        assert(accepts(size));
+        final LongStack free = freeLists[sizeClass(size) - MIN_CHUNK_SHIFT];
+        synchronized(free) {
+            free.push(address);
+        }
+    }
+
+    private synchronized long carve(int sc) {
+        final long chunkSize = 1L << sc;
+        if (limit - cursor < chunkSize) {
+            retireTail();
+            cursor = newRegion();
+            limit = cursor + regionSize;
+        }
+        final long address = cursor;
+        cursor += chunkSize;
+        return address;
+    }
+
+    private long newRegion() {
+        final Long ready = (readyRegions != null)? readyRegions.poll() : null;
+        if (ready != null) {
+            refillReserve();
+            return ready;
+        }
+        final long region = Numa.allocateOnNode(regionSize, node);
+        reservedSize.getAndAdd(regionSize);
+        return region;
+    }
+
+    // Split the unused tail of the current region into
+    // smaller chunks so that it is not wasted
+    private void retireTail() {
+        while (limit - cursor >= (1L << MIN_CHUNK_SHIFT)) {
+            final int sc = Math.min(maxChunkShift,
+                    63 - Long.numberOfLeadingZeros(limit - cursor));
+            free(cursor, 1L << sc);
+            cursor += 1L << sc;
+        }
+    }
+
+    /** A growable stack of primitive longs. */
+    static final class LongStack {
+        private long[] elems = new long[16];
+        private int size = 0;
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public void push(long v) {
+            if (size == elems.length) {
+                elems = Arrays.copyOf(elems, size * 2);
+            }
+            elems[size++] = v;
+        }
+
+        public long pop() {
+            return elems[--size];
+        }
+    }
+}
@@ -17,6 +17,49 @@
 
 package xerial.jnuma.buffer;
 
-final class NumaBufferConfig {
+/**
+ * Configuration of NUMA buffers. The values are read from
+ * system properties when this class is loaded.
+ */
+public final class NumaBufferConfig {
+
+    // Set "arena" to carve small buffers out of per-node arenas
+    public static final String ALLOCATOR_KEY = "xerial.jnuma.allocator";
+    public static final String ARENA_REGION_SIZE_KEY = "xerial.jnuma.arena.regionSize";
+    public static final String ARENA_MAX_CHUNK_SIZE_KEY = "xerial.jnuma.arena.maxChunkSize";
+    public static final String ARENA_RESERVE_REGIONS_KEY = "xerial.jnuma.arena.reserveRegions";
+
+    // Set "true" to populate the pages of every buffer when allocated
+    public static final String PREFAULT_KEY = "xerial.jnuma.prefault";
+
+    // Set a positive number to cache released buffers in each thread
+    public static final String THREAD_CACHE_SIZE_KEY = "xerial.jnuma.threadCache.size";
+    public static final String THREAD_CACHE_MAX_SIZE_KEY = "xerial.jnuma.threadCache.maxSize";
+
+    // Set "sampled" or "paranoid" to record where leaked buffers are allocated
+    public static final String LEAK_DETECTION_LEVEL_KEY = "xerial.jnuma.leakDetection.level";
+    public static final String LEAK_DETECTION_INTERVAL_KEY = "xerial.jnuma.leakDetection.samplingInterval";
+
+    public static final boolean useArena =
+            "arena".equalsIgnoreCase(System.getProperty(ALLOCATOR_KEY, "direct"));
+    public static final long arenaRegionSize =
+            Long.getLong(ARENA_REGION_SIZE_KEY, 4L * 1024 * 1024);
+    public static final long arenaMaxChunkSize =
+            Long.getLong(ARENA_MAX_CHUNK_SIZE_KEY, 256L * 1024);
+    public static final int arenaReserveRegions =
+            Integer.getInteger(ARENA_RESERVE_REGIONS_KEY, 0);
+    public static final boolean prefault =
+            Boolean.getBoolean(PREFAULT_KEY);
+    public static final int threadCacheSize =
+            Integer.getInteger(THREAD_CACHE_SIZE_KEY, 0);
+    public static final long threadCacheMaxSize =
+            Long.getLong(THREAD_CACHE_MAX_SIZE_KEY, 64L * 1024);
+    public static final LeakDetectionLevel leakDetectionLevel = LeakDetectionLevel.valueOf(
+            System.getProperty(LEAK_DETECTION_LEVEL_KEY, "off").toUpperCase());
+    public static final int leakDetectionSamplingInterval =
+            Math.max(1, Integer.getInteger(LEAK_DETECTION_INTERVAL_KEY, 128));
+
     public static NumaMemoryAllocator allocator = new NumaMemoryAllocator();
+
+    private NumaBufferConfig() {}
 }
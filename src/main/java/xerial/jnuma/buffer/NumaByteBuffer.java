@@ -17,6 +17,12 @@
 
 package xerial.jnuma.buffer;
 
+/**
+ * A buffer allocated on a NUMA node. The memory returns to the node
+ * when {@link #close()} is called or the reference count taken by
+ * {@link #retain()} drops to zero on {@link #release()}. A buffer
+ * never released is reclaimed after GC as a last resort.
+ */
 public final class NumaByteBuffer extends ByteBufferLikeApi {
 
     public NumaByteBuffer(long capacity) {
@@ -26,4 +32,29 @@ public final class NumaByteBuffer extends ByteBufferLikeApi {
     public NumaByteBuffer(long capacity, int node) {
         super(NumaBufferConfig.allocator.allocate(capacity, node));
     }
+
+    /**
+     * Allocate a buffer on a given node.
+     * @param prefault if true, the pages of the buffer are populated in advance
+     */
+    public NumaByteBuffer(long capacity, int node, boolean prefault) {
+        super(NumaBufferConfig.allocator.allocate(capacity, node, prefault));
+    }
+
+    /**
+     * Allocate a buffer backed by huge pages on a given node. If huge
+     * pages are not available, the buffer falls back on smaller pages
+     * and {@link #pageSize()} reports the page size actually used.
+     * @param hugePageSize {@link xerial.jnuma.Numa#HUGE_PAGE_2MB}
+     *                     or {@link xerial.jnuma.Numa#HUGE_PAGE_1GB}
+     */
+    public NumaByteBuffer(long capacity, int node, long hugePageSize) {
+        super(NumaBufferConfig.allocator.allocate(capacity, node, hugePageSize));
+    }
+
+    @Override
+    public NumaByteBuffer retain() {
+        super.retain();
+        return this;
+    }
 }
@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.buffer;
+
+import xerial.jnuma.Numa;
+import xerial.jnuma.utils.PlatformDependent;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copy a large range between NUMA buffers in parallel. The range is
+ * split into page-aligned chunks that are copied by worker threads
+ * running on the node of the destination buffer, so that the copy
+ * uses more of the interconnect bandwidth than a single thread does
+ * and the written pages stay local to the destination.
+ */
+public final class NumaCopier {
+
+    // Chunks are not smaller than this size to amortize task overheads
+    private static final long MIN_CHUNK_SIZE = 1024L * 1024L;
+
+    private final int threadsPerNode;
+    private final ExecutorService[] workers;
+
+    /**
+     * Create a copier with worker threads as many as the CPUs in a node.
+     */
+    public NumaCopier() {
+        this(Math.max(1, Numa.numCPUs() / Numa.numNodes()));
+    }
+
+    public NumaCopier(int threadsPerNode) {
+        this.threadsPerNode = threadsPerNode;
+        this.workers = new ExecutorService[Numa.numNodes()];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = Executors.newFixedThreadPool(threadsPerNode, new NodeBoundThreadFactory(i));
+        }
+    }
+
+    /**
+     * Copy bytes from the source buffer to the destination one.
+     * Both buffers are retained until the copy finishes,
+     * and the two ranges must not overlap.
+     * @param src source buffer
+     * @param srcOffset byte offset in the source buffer
+     * @param dst destination buffer
+     * @param dstOffset byte offset in the destination buffer
+     * @param length the number of bytes to copy
+     * @return a future holding the statistics of the copy
+     */
+    public Future<CopyStats> copy(NumaByteBuffer src, long srcOffset,
+                                  NumaByteBuffer dst, long dstOffset, long length) {
+        src.checkRange(srcOffset, length);
+        dst.checkRange(dstOffset, length);
+        final long srcAddress = src.address() + srcOffset;
+        final long dstAddress = dst.address() + dstOffset;
+        final int node = Math.max(0, dst.node());
+
+        // Chunk boundaries fall on pages of the destination
+        final long pageSize = PlatformDependent.UNSAFE.pageSize();
+        final long chunkSize = Math.max(MIN_CHUNK_SIZE,
+                (length / (threadsPerNode * 4L) + pageSize - 1) / pageSize * pageSize);
+        int numChunks = 0;
+        for (long begin = 0; begin < length; begin = nextBoundary(begin, dstAddress, chunkSize, pageSize, length)) {
+            numChunks++;
+        }
+
+        final CopyFuture future = new CopyFuture(src, dst, length, numChunks);
+        if (numChunks == 0) {
+            future.done();
+            return future;
+        }
+        src.retain();
+        dst.retain();
+        int submitted = 0;
+        for (long begin = 0; begin < length; ) {
+            final long offset = begin;
+            final long end = nextBoundary(begin, dstAddress, chunkSize, pageSize, length);
+            try {
+                workers[node].execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        future.copy(srcAddress + offset, dstAddress + offset, end - offset);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The copier is shut down; cancel the submitted chunks and
+                // let the last one of them release the buffers
+                future.cancel(false);
+                future.skip(numChunks - submitted);
+                throw e;
+            }
+            submitted++;
+            begin = end;
+        }
+        return future;
+    }
+
+    // Return the end of a chunk that begins at a given offset
+    private static long nextBoundary(long begin, long dstAddress, long chunkSize, long pageSize, long length) {
+        final long boundary = (dstAddress + begin + chunkSize) / pageSize * pageSize - dstAddress;
+        return Math.min(length, boundary);
+    }
+
+    /**
+     * Stop the worker threads after running the submitted copies.
+     */
+    public void shutdown() {
+        for (ExecutorService w : workers) {
+            w.shutdown();
+        }
+    }
+
+    /** Statistics of a finished copy. */
+    public static final class CopyStats {
+        public final long bytes;
+        public final long elapsedNanos;
+
+        CopyStats(long bytes, long elapsedNanos) {
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Return the achieved bandwidth in GB/s.
+         */
+        public double gbPerSecond() {
+            return (elapsedNanos == 0)? 0.0 : (double) bytes / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("copied %d bytes in %.3f ms (%.2f GB/s)",
+                    bytes, elapsedNanos / 1e6, gbPerSecond());
+        }
+    }
+
+    private static final class CopyFuture implements Future<CopyStats> {
+        private final NumaByteBuffer src;
+        private final NumaByteBuffer dst;
+        private final long length;
+        private final long startNanos = System.nanoTime();
+        private final AtomicInteger remaining;
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        private volatile boolean cancelled = false;
+        private volatile Throwable error = null;
+        private volatile long elapsedNanos = 0L;
+
+        CopyFuture(NumaByteBuffer src, NumaByteBuffer dst, long length, int numChunks) {
+            this.src = src;
+            this.dst = dst;
+            this.length = length;
+            this.remaining = new AtomicInteger(numChunks);
+        }
+
+        void copy(long srcAddress, long dstAddress, long size) {
+            try {
+                if (!cancelled && error == null) {
+                    PlatformDependent.UNSAFE.copyMemory(srcAddress, dstAddress, size);
+                }
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                skip(1);
+            }
+        }
+
+        // Count chunks as finished, and release the buffers after the last one
+        void skip(int numChunks) {
+            if (remaining.addAndGet(-numChunks) == 0) {
+                src.release();
+                dst.release();
+                done();
+            }
+        }
+
+        void done() {
+            elapsedNanos = System.nanoTime() - startNanos;
+            latch.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (isDone()) return false;
+            cancelled = true;
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return cancelled || latch.getCount() == 0;
+        }
+
+        @Override
+        public CopyStats get() throws InterruptedException, ExecutionException {
+            if (cancelled)
+                throw new CancellationException();
+            latch.await();
+            return result();
+        }
+
+        @Override
+        public CopyStats get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            if (cancelled)
+                throw new CancellationException();
+            if (!latch.await(timeout, unit))
+                throw new TimeoutException();
+            return result();
+        }
+
+        private CopyStats result() throws ExecutionException {
+            if (cancelled)
+                throw new CancellationException();
+            if (error != null)
+                throw new ExecutionException(error);
+            return new CopyStats(length, elapsedNanos);
+        }
+    }
+
+    // Create daemon threads that run on a given node
+    private static final class NodeBoundThreadFactory implements ThreadFactory {
+        private final int node;
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        NodeBoundThreadFactory(int node) {
+            this.node = node;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Numa.runOnNode(node);
+                    r.run();
+                }
+            }, String.format("jnuma-copier-node%d-%d", node, count.getAndIncrement()));
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.buffer;
+
+/**
+ * A fixed-length array of long values allocated outside the Java heap
+ * on a NUMA node, so that large arrays add no GC pressure.
+ */
+public final class NumaLongArray implements AutoCloseable {
+
+    private final NumaByteBuffer buf;
+    private final long length;
+
+    /**
+     * Allocate an array on the current node.
+     */
+    public NumaLongArray(long length) {
+        this(length, new NumaByteBuffer(checkLength(length) << 3));
+    }
+
+    /**
+     * Allocate an array on a given node.
+     */
+    public NumaLongArray(long length, int node) {
+        this(length, new NumaByteBuffer(checkLength(length) << 3, node));
+    }
+
+    private NumaLongArray(long length, NumaByteBuffer buf) {
+        this.buf = buf;
+        this.length = length;
+        buf.clear();
+    }
+
+    private static long checkLength(long length) {
+        if (length < 0 || length > (Long.MAX_VALUE >> 3))
+            throw new IllegalArgumentException("Invalid length: " + length);
+        return length;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public int node() {
+        return buf.node();
+    }
+
+    /**
+     * Return the buffer holding the elements.
+     */
+    public NumaByteBuffer buffer() {
+        return buf;
+    }
+
+    private long offset(long index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("Index out of range: " + index);
+        return index << 3;
+    }
+
+    private long rangeOffset(long index, int count) {
+        if (index < 0 || count < 0 || index > length - count)
+            throw new IndexOutOfBoundsException(
+                    String.format("Range out of bounds: index=%d, count=%d", index, count));
+        return index << 3;
+    }
+
+    public long get(long index) {
+        return buf.getLong(offset(index));
+    }
+
+    public void set(long index, long value) {
+        buf.putLong(offset(index), value);
+    }
+
+    public void fill(long value) {
+        for (long i = 0; i < length; i++) {
+            buf.putLong(i << 3, value);
+        }
+    }
+
+    /**
+     * Copy elements into a Java array.
+     */
+    public void get(long index, long[] dst, int dstIndex, int count) {
+        buf.get(rangeOffset(index, count), dst, dstIndex, count);
+    }
+
+    /**
+     * Copy elements from a Java array.
+     */
+    public void set(long index, long[] src, int srcIndex, int count) {
+        buf.put(rangeOffset(index, count), src, srcIndex, count);
+    }
+
+    @Override
+    public void close() {
+        buf.close();
+    }
+}
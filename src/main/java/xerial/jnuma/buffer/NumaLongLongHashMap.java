@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.buffer;
+
+import xerial.jnuma.Numa;
+
+/**
+ * An off-heap hash map from long keys to long values on a NUMA node.
+ * Entries are kept in a single open-addressing table with linear
+ * probing, where a key and its value are adjacent in one 16-byte slot.
+ * The table grows on the node where the map was created.
+ *
+ * Key 0 marks empty slots, so its entry is held outside the table.
+ * Removal shifts the following entries back instead of leaving
+ * tombstones. This class is not thread-safe.
+ */
+public final class NumaLongLongHashMap implements AutoCloseable {
+
+    private static final int SLOT_SIZE = 16;
+    private static final long MIN_CAPACITY = 16L;
+
+    private final int node;
+    private final double loadFactor;
+
+    private NumaByteBuffer table;
+    private long mask;
+    private long growThreshold;
+
+    // The number of entries in the table
+    private long size = 0L;
+
+    private boolean hasZeroKey = false;
+    private long zeroValue = 0L;
+
+    /** A function applied to each entry. */
+    public interface Visitor {
+        void visit(long key, long value);
+    }
+
+    /**
+     * Create a map on the current node.
+     */
+    public NumaLongLongHashMap(long expectedSize) {
+        this(expectedSize, Numa.cachedCurrentNode(), 0.75);
+    }
+
+    public NumaLongLongHashMap(long expectedSize, int node) {
+        this(expectedSize, node, 0.75);
+    }
+
+    public NumaLongLongHashMap(long expectedSize, int node, double loadFactor) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("Invalid expected size: " + expectedSize);
+        if (!(loadFactor > 0.0 && loadFactor < 1.0))
+            throw new IllegalArgumentException("Invalid load factor: " + loadFactor);
+        this.node = node;
+        this.loadFactor = loadFactor;
+        allocateTable(tableCapacity(expectedSize, loadFactor));
+    }
+
+    private static long tableCapacity(long expectedSize, double loadFactor) {
+        final long c = (long) Math.ceil(expectedSize / loadFactor);
+        return Math.max(MIN_CAPACITY, Long.highestOneBit(Math.max(1L, c - 1)) << 1);
+    }
+
+    private void allocateTable(long capacity) {
+        table = new NumaByteBuffer(capacity * SLOT_SIZE, node);
+        table.clear();
+        mask = capacity - 1;
+        growThreshold = (long) (capacity * loadFactor);
+    }
+
+    // A finalizer of MurmurHash3 to spread keys over slots
+    private static long mix(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private long keyAt(long slot) {
+        return table.getLong(slot * SLOT_SIZE);
+    }
+
+    private long valueAt(long slot) {
+        return table.getLong(slot * SLOT_SIZE + 8);
+    }
+
+    private void setSlot(long slot, long key, long value) {
+        table.putLong(slot * SLOT_SIZE, key);
+        table.putLong(slot * SLOT_SIZE + 8, value);
+    }
+
+    // Return the slot of a key, or -1 if not found
+    private long find(long key) {
+        for (long slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            final long k = keyAt(slot);
+            if (k == key) return slot;
+            if (k == 0L) return -1L;
+        }
+    }
+
+    public int node() {
+        return node;
+    }
+
+    public long size() {
+        return size + (hasZeroKey? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Return the number of slots in the table.
+     */
+    public long capacity() {
+        return mask + 1;
+    }
+
+    public boolean containsKey(long key) {
+        return (key == 0L)? hasZeroKey : find(key) >= 0;
+    }
+
+    public long get(long key, long defaultValue) {
+        if (key == 0L) return hasZeroKey? zeroValue : defaultValue;
+        final long slot = find(key);
+        return (slot >= 0)? valueAt(slot) : defaultValue;
+    }
+
+    /**
+     * Associate a value with a key.
+     * @return true if the key is newly added
+     */
+    public boolean put(long key, long value) {
+        if (key == 0L) {
+            final boolean added = !hasZeroKey;
+            hasZeroKey = true;
+            zeroValue = value;
+            return added;
+        }
+        for (long slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            final long k = keyAt(slot);
+            if (k == key) {
+                table.putLong(slot * SLOT_SIZE + 8, value);
+                return false;
+            }
+            if (k == 0L) {
+                setSlot(slot, key, value);
+                if (++size > growThreshold) grow();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Add a delta to the value of a key, which starts with 0.
+     * @return the new value
+     */
+    public long addTo(long key, long delta) {
+        final long v = get(key, 0L) + delta;
+        put(key, v);
+        return v;
+    }
+
+    /**
+     * Remove the entry of a key.
+     * @return true if the key was found
+     */
+    public boolean remove(long key) {
+        if (key == 0L) {
+            final boolean found = hasZeroKey;
+            hasZeroKey = false;
+            zeroValue = 0L;
+            return found;
+        }
+        final long slot = find(key);
+        if (slot < 0) return false;
+        shiftBack(slot);
+        size--;
+        return true;
+    }
+
+    // Fill an emptied slot with a following entry that cannot be
+    // reached from its home slot otherwise, and repeat for the moved one
+    private void shiftBack(long slot) {
+        long last = slot;
+        long pos = slot;
+        while (true) {
+            pos = (pos + 1) & mask;
+            final long k = keyAt(pos);
+            if (k == 0L) {
+                setSlot(last, 0L, 0L);
+                return;
+            }
+            final long home = mix(k) & mask;
+            final boolean stays = (last <= pos)? (last < home && home <= pos)
+                                               : (last < home || home <= pos);
+            if (!stays) {
+                setSlot(last, k, valueAt(pos));
+                last = pos;
+            }
+        }
+    }
+
+    // Double the table on the node of this map
+    private void grow() {
+        final NumaByteBuffer old = table;
+        final long oldCapacity = capacity();
+        allocateTable(oldCapacity * 2);
+        try {
+            for (long slot = 0; slot < oldCapacity; slot++) {
+                final long k = old.getLong(slot * SLOT_SIZE);
+                if (k == 0L) continue;
+                long s = mix(k) & mask;
+                while (keyAt(s) != 0L) {
+                    s = (s + 1) & mask;
+                }
+                setSlot(s, k, old.getLong(slot * SLOT_SIZE + 8));
+            }
+        } finally {
+            old.release();
+        }
+    }
+
+    public void forEach(Visitor visitor) {
+        if (hasZeroKey) visitor.visit(0L, zeroValue);
+        for (long slot = 0; slot <= mask; slot++) {
+            final long k = keyAt(slot);
+            if (k != 0L) visitor.visit(k, valueAt(slot));
+        }
+    }
+
+    public void clear() {
+        table.clear();
+        size = 0L;
+        hasZeroKey = false;
+        zeroValue = 0L;
+    }
+
+    @Override
+    public void close() {
+        table.close();
+    }
+}
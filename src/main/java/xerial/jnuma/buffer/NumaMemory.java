@@ -27,17 +27,33 @@ public final class NumaMemory implements Memory {
     private final long size;
     private final int  node;
 
+    // The page size of memory allocated with huge pages or 0 otherwise,
+    // and the byte size actually mapped for the memory
+    private final long pageSize;
+    private final long mappedSize;
+
+    // A reference registered in an allocator
+    private MemoryReference ref = null;
+
     // Create an empty memory
     public NumaMemory() {
         this.address = 0;
         this.size = 0;
         this.node = -1;
+        this.pageSize = 0;
+        this.mappedSize = 0;
     }
 
     public NumaMemory(long address, long size, int node) {
+        this(address, size, node, 0L, size);
+    }
+
+    public NumaMemory(long address, long size, int node, long pageSize, long mappedSize) {
         this.address = address;
         this.size = size;
         this.node = node;
+        this.pageSize = pageSize;
+        this.mappedSize = mappedSize;
     }
 
     @Override
@@ -50,17 +66,36 @@ public final class NumaMemory implements Memory {
         return this.size;
     }
 
+    @Override
     public int node() {
         return this.node;
     }
 
+    @Override
+    public long pageSize() {
+        return (pageSize == 0)? Numa.pageSize() : pageSize;
+    }
+
+    public boolean isHugePageAllocation() {
+        return pageSize != 0;
+    }
+
+    public long mappedSize() {
+        return this.mappedSize;
+    }
+
+    public MemoryReference ref() {
+        return this.ref;
+    }
+
     @Override
     public MemoryReference toRef(ReferenceQueue<Memory> queue) {
-        return new NumaMemoryReference(this, queue);
+        this.ref = new NumaMemoryReference(this, queue);
+        return this.ref;
     }
 
     @Override
     public void release() {
-        if(this.address != 0) { Numa.free(address, size); }
+        if(this.address != 0) { Numa.free(address, mappedSize); }
     }
 }
@@ -17,23 +17,43 @@
 
 package xerial.jnuma.buffer;
 
+import xerial.jnuma.HugePageMemory;
 import xerial.jnuma.Numa;
 import xerial.jnuma.utils.Logging;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.lang.ref.ReferenceQueue;
-import java.util.Map;
+import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class NumaMemoryAllocator extends Logging {
 
-    // Map from address -> MemoryReference
-    private Map<Long, MemoryReference> mapAddrToRef = new ConcurrentHashMap<Long, MemoryReference>();
+    // Registry from address -> MemoryReference, striped per node
+    private MemoryRegistry registry = new MemoryRegistry(Numa.numNodes(), 1024);
     private ReferenceQueue<Memory> queue = new ReferenceQueue<Memory>();
 
     // Hold the amount of allocated NUMA memory
     private AtomicLong[] numaAllocatedSize = new AtomicLong[Numa.numNodes()];
 
+    // Per-node arenas for small allocations, or null if every
+    // allocation goes to the NUMA API directly
+    private final NumaArena[] arenas;
+
+    // Per-thread caches of released memory, or null if disabled
+    private final ThreadLocal<NumaThreadCache> caches;
+
+    // Whether allocation sites are recorded for leak reports
+    private volatile LeakDetectionLevel leakDetectionLevel = NumaBufferConfig.leakDetectionLevel;
+
+    // The number of leaks found and allocation sites already reported
+    private final AtomicLong leakCount = new AtomicLong(0);
+    private final Set<String> reportedLeakSites =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     {
         // Allocate each entry for counters
         for (int i = 0; i < Numa.numNodes(); i++) {
@@ -48,12 +68,11 @@ public class NumaMemoryAllocator extends Logging {
                 while(true) {
                     try {
                         MemoryReference ref = MemoryReference.class.cast(queue.remove());
-                        release(ref);
                         assert(ref instanceof NumaMemoryReference);
-                        logger.info(String.format(
-                                "NUMA memory (address:%x, size:%d, node:%d) collected by GC",
-                                ref.address, ref.size,
-                                ((NumaMemoryReference) ref).node));
+                        // Memory left in thread caches is not a leak
+                        if (release(ref)) {
+                            reportLeak(ref);
+                        }
                     } catch(Exception e) {
                         e.printStackTrace(System.err);
                     }
@@ -64,41 +83,213 @@ public class NumaMemoryAllocator extends Logging {
         collector.start();
     }
 
+    public NumaMemoryAllocator() {
+        this(NumaBufferConfig.useArena);
+    }
+
+    public NumaMemoryAllocator(boolean useArena) {
+        this(useArena, NumaBufferConfig.threadCacheSize);
+    }
+
+    /**
+     * Create an allocator.
+     * @param useArena if true, allocations up to
+     *                 {@link NumaBufferConfig#arenaMaxChunkSize} bytes are
+     *                 carved out of per-node arenas and recycled on release
+     * @param threadCacheSize if positive, each thread caches up to this number
+     *                        of released memory for each node and size class
+     */
+    public NumaMemoryAllocator(boolean useArena, final int threadCacheSize) {
+        if (useArena) {
+            arenas = new NumaArena[Numa.numNodes()];
+            for (int i = 0; i < arenas.length; i++) {
+                arenas[i] = new NumaArena(i,
+                        NumaBufferConfig.arenaRegionSize,
+                        NumaBufferConfig.arenaMaxChunkSize,
+                        NumaBufferConfig.arenaReserveRegions);
+            }
+        } else {
+            arenas = null;
+        }
+        if (threadCacheSize > 0) {
+            caches = new ThreadLocal<NumaThreadCache>() {
+                @Override
+                protected NumaThreadCache initialValue() {
+                    return new NumaThreadCache(NumaMemoryAllocator.this, Numa.numNodes(),
+                            threadCacheSize, NumaBufferConfig.threadCacheMaxSize);
+                }
+            };
+        } else {
+            caches = null;
+        }
+    }
+
+    public LeakDetectionLevel getLeakDetectionLevel() {
+        return leakDetectionLevel;
+    }
+
+    public void setLeakDetectionLevel(LeakDetectionLevel level) {
+        this.leakDetectionLevel = level;
+    }
+
+    // Return the number of leaked memory collected by GC
+    public long leakCount() {
+        return leakCount.get();
+    }
+
     // Return the amount of allocated memory in a givn node
     public long allocatedSize(int node) {
         return numaAllocatedSize[node].get();
     }
 
+    // Return the amount of memory held by arenas in a given node
+    public long arenaReservedSize(int node) {
+        return (arenas != null)? arenas[node].reservedSize() : 0L;
+    }
+
     public Memory allocate(long capacity, int node) {
+        return this.allocate(capacity, node, NumaBufferConfig.prefault);
+    }
+
+    /**
+     * Allocate memory on a given node.
+     * @param prefault if true, the pages of the memory are populated
+     *                 before it is returned so that the first writes
+     *                 do not take page faults
+     */
+    public Memory allocate(long capacity, int node, boolean prefault) {
         if(capacity == 0L) return new NumaMemory();
-        final long address = Numa.allocateOnNode(capacity, node);
+        if(cacheable(capacity)) {
+            final NumaMemory cached = caches.get().poll(capacity, node);
+            if(cached != null) {
+                cached.ref().markInUse();
+                traceAllocation(cached.ref());
+                numaAllocatedSize[node].getAndAdd(capacity);
+                return cached;
+            }
+        }
+        final long address = fromArena(capacity, node)?
+                arenas[node].allocate(capacity) : Numa.allocateOnNode(capacity, node);
+        if(prefault) Numa.prefault(address, capacity);
         NumaMemory m = new NumaMemory(address, capacity, node);
         register(m);
         return m;
     }
 
     public Memory allocate(long capacity) {
-        return this.allocate(capacity, Numa.currentNode());
+        // The node is cached per thread since allocation is on hot paths
+        return this.allocate(capacity, Numa.cachedCurrentNode());
+    }
+
+    /**
+     * Allocate memory backed by huge pages on a given node.
+     * The memory bypasses arenas and thread caches.
+     * @see Numa#allocateHugePages(long, int, long)
+     */
+    public Memory allocate(long capacity, int node, long hugePageSize) {
+        if(capacity == 0L) return new NumaMemory();
+        final HugePageMemory hm = Numa.allocateHugePages(capacity, node, hugePageSize);
+        NumaMemory m = new NumaMemory(hm.address, capacity, node, hm.pageSize, hm.size);
+        register(m);
+        return m;
     }
 
     private void register(NumaMemory m) {
         MemoryReference ref = m.toRef(queue);
-        mapAddrToRef.put(ref.address, ref);
+        traceAllocation(ref);
+        registry.register(ref, m.node());
         numaAllocatedSize[m.node()].getAndAdd(m.size());
     }
 
     public void release(Memory m) {
-        synchronized(this) {
-            final long address = m.address();
-            if(mapAddrToRef.containsKey(address)) {
-                numaAllocatedSize[((NumaMemory) m).node()].getAndAdd(-m.size());
-                mapAddrToRef.remove(address);
-                m.release();
+        final NumaMemory nm = (NumaMemory) m;
+        final MemoryReference ref = nm.ref();
+        // Ignore an empty memory and memory already released
+        if(ref == null || !ref.markReleased()) return;
+        numaAllocatedSize[nm.node()].getAndAdd(-nm.size());
+        if(cacheable(nm.size()) && !nm.isHugePageAllocation()) {
+            caches.get().offer(nm);
+        } else {
+            unregister(ref);
+        }
+    }
+
+    /**
+     * Release memory whose Memory object has been collected by GC.
+     * @return true if the memory had not been released before
+     */
+    public boolean release(MemoryReference ref) {
+        final boolean inUse = ref.markReleased();
+        if(inUse) {
+            numaAllocatedSize[((NumaMemoryReference) ref).node].getAndAdd(-ref.size);
+        }
+        unregister(ref);
+        return inUse;
+    }
+
+    // Return memory spilled from a thread cache to the node
+    void spill(NumaMemory m) {
+        unregister(m.ref());
+    }
+
+    private void unregister(MemoryReference ref) {
+        final int node = ((NumaMemoryReference) ref).node;
+        if(registry.unregister(ref, node)) {
+            free((NumaMemoryReference) ref);
+        }
+    }
+
+    // Record the current stack if the allocation is sampled
+    private void traceAllocation(MemoryReference ref) {
+        final LeakDetectionLevel level = leakDetectionLevel;
+        if(level == LeakDetectionLevel.OFF) return;
+        if(level == LeakDetectionLevel.PARANOID
+                || ThreadLocalRandom.current().nextInt(NumaBufferConfig.leakDetectionSamplingInterval) == 0) {
+            ref.setAllocationSite(new Throwable("NUMA memory allocated"));
+        } else {
+            ref.setAllocationSite(null);
+        }
+    }
+
+    private void reportLeak(MemoryReference ref) {
+        leakCount.incrementAndGet();
+        final String message = String.format(
+                "NUMA memory (address:%x, size:%d, node:%d) not released, collected by GC",
+                ref.address, ref.size, ((NumaMemoryReference) ref).node);
+        final Throwable site = ref.allocationSite();
+        if(site == null) {
+            if(leakDetectionLevel == LeakDetectionLevel.OFF) {
+                logger.warning(message + ". Set -D" + NumaBufferConfig.LEAK_DETECTION_LEVEL_KEY
+                        + "=paranoid to find where it is allocated");
+            } else {
+                logger.warning(message);
             }
+            return;
         }
+        final StringWriter trace = new StringWriter();
+        site.printStackTrace(new PrintWriter(trace));
+        // Report each allocation site only once
+        if(reportedLeakSites.add(trace.toString())) {
+            logger.warning(message + ", allocated at:\n" + trace);
+        }
+    }
+
+    private boolean cacheable(long capacity) {
+        return caches != null && capacity <= NumaBufferConfig.threadCacheMaxSize;
     }
 
-    public void release(MemoryReference ref) {
-        release(ref.toMemory());
+    private boolean fromArena(long capacity, int node) {
+        return arenas != null && arenas[node].accepts(capacity);
+    }
+
+    // Return the memory to an arena or the node
+    private void free(NumaMemoryReference ref) {
+        if (ref.pageSize != 0) {
+            Numa.free(ref.address, ref.mappedSize);
+        } else if (fromArena(ref.size, ref.node)) {
+            arenas[ref.node].free(ref.address, ref.size);
+        } else {
+            Numa.free(ref.address, ref.size);
+        }
     }
-}
\ No newline at end of file
+}
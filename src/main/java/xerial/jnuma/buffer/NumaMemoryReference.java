@@ -21,6 +21,8 @@ import java.lang.ref.ReferenceQueue;
 
 public final class NumaMemoryReference extends MemoryReference {
     public final int node;
+    public final long pageSize;
+    public final long mappedSize;
 
     /**
      * Create a phantom reference to NUMA memory
@@ -31,11 +33,14 @@ public final class NumaMemoryReference extends MemoryReference {
     public NumaMemoryReference(Memory m, ReferenceQueue<Memory> queue) {
         super(m, queue);
         assert(m instanceof NumaMemory);
-        this.node = ((NumaMemory) m).node();
+        final NumaMemory nm = (NumaMemory) m;
+        this.node = nm.node();
+        this.pageSize = nm.isHugePageAllocation()? nm.pageSize() : 0L;
+        this.mappedSize = nm.mappedSize();
     }
 
     public Memory toMemory() {
-        if(address != 0) return new NumaMemory(address, size, node);
+        if(address != 0) return new NumaMemory(address, size, node, pageSize, mappedSize);
         else return new NumaMemory();
     }
 
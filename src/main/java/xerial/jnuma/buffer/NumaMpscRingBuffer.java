@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.buffer;
+
+import xerial.jnuma.utils.PlatformDependent;
+
+/**
+ * A ring buffer for multiple producers and a single consumer. Producers
+ * claim slots by a CAS on the tail, and each slot has a sequence number
+ * telling the consumer that its value is published and the producers
+ * that it is free again, so producers may finish out of order.
+ */
+public final class NumaMpscRingBuffer extends NumaRingBuffer {
+
+    // A slot holds a sequence number followed by a value
+    private static final int SLOT_SHIFT = 4;
+
+    public NumaMpscRingBuffer(int capacity, int consumerNode) {
+        this(capacity, consumerNode, WaitStrategies.YIELD);
+    }
+
+    public NumaMpscRingBuffer(int capacity, int consumerNode, WaitStrategy waitStrategy) {
+        super(capacity, consumerNode, waitStrategy, 1 << SLOT_SHIFT);
+        // A slot for position p is free when its sequence is p
+        for (long i = 0; i < capacity; i++) {
+            PlatformDependent.UNSAFE.putLong(slot(i), i);
+        }
+        PlatformDependent.UNSAFE.putOrderedLong(tailAddress, 0L);
+    }
+
+    private long slot(long position) {
+        return slotsAddress + ((position & mask) << SLOT_SHIFT);
+    }
+
+    @Override
+    public boolean offer(long value) {
+        while (true) {
+            final long tail = PlatformDependent.UNSAFE.getLongVolatile(tailAddress);
+            final long slot = slot(tail);
+            final long seq = PlatformDependent.UNSAFE.getLongVolatile(slot);
+            if (seq < tail) return false;
+            if (seq == tail && PlatformDependent.UNSAFE.compareAndSwapLong(tailAddress, tail, tail + 1)) {
+                PlatformDependent.UNSAFE.putLong(slot + 8, value);
+                PlatformDependent.UNSAFE.putOrderedLong(slot, tail + 1);
+                return true;
+            }
+            // Another producer has claimed the slot
+        }
+    }
+
+    @Override
+    public int offer(long[] src, int index, int length) {
+        if (length <= 0) return 0;
+        while (true) {
+            final long tail = PlatformDependent.UNSAFE.getLongVolatile(tailAddress);
+            final long head = PlatformDependent.UNSAFE.getLongVolatile(headAddress);
+            final int n = (int) Math.min(length, Math.min(capacity, capacity - (tail - head)));
+            if (n <= 0) {
+                // The head may be stale, so try a single value
+                return offer(src[index])? 1 : 0;
+            }
+            // The consumer frees slots in order, so all the n slots are
+            // free if the last one is
+            final long last = tail + n - 1;
+            if (PlatformDependent.UNSAFE.getLongVolatile(slot(last)) != last) continue;
+            if (!PlatformDependent.UNSAFE.compareAndSwapLong(tailAddress, tail, tail + n)) continue;
+            for (int i = 0; i < n; i++) {
+                PlatformDependent.UNSAFE.putLong(slot(tail + i) + 8, src[index + i]);
+            }
+            for (int i = 0; i < n; i++) {
+                PlatformDependent.UNSAFE.putOrderedLong(slot(tail + i), tail + i + 1);
+            }
+            return n;
+        }
+    }
+
+    @Override
+    public int poll(long[] dst, int index, int length) {
+        final long head = PlatformDependent.UNSAFE.getLong(headAddress);
+        int n = 0;
+        while (n < length) {
+            final long slot = slot(head + n);
+            if (PlatformDependent.UNSAFE.getLongVolatile(slot) != head + n + 1) break;
+            dst[index + n] = PlatformDependent.UNSAFE.getLong(slot + 8);
+            PlatformDependent.UNSAFE.putOrderedLong(slot, head + n + capacity);
+            n++;
+        }
+        if (n > 0) PlatformDependent.UNSAFE.putOrderedLong(headAddress, head + n);
+        return n;
+    }
+}
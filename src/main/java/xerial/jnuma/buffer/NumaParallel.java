@@ -0,0 +1,358 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.buffer;
+
+import xerial.jnuma.Numa;
+import xerial.jnuma.NumaExecutor;
+import xerial.jnuma.PageStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Data-parallel operations over a range of a NumaByteBuffer. A range is
+ * split by the node owning each of its pages, and every split runs on
+ * a worker of {@link NumaExecutor} bound to the node, so a scan over an
+ * interleaved or migrated buffer reads local memory on every node.
+ * The operations return after all the splits finish. They may also be
+ * called from a task of the executor, whose worker then runs queued
+ * tasks while it waits.
+ */
+public final class NumaParallel {
+
+    // Splits are not smaller than this size to amortize task overheads
+    private static final long MIN_SPLIT_SIZE = 1024L * 1024L;
+
+    private final NumaExecutor executor;
+
+    public NumaParallel(NumaExecutor executor) {
+        this.executor = executor;
+    }
+
+    /** A function applied to each part of a range. */
+    public interface RangeVisitor {
+        void visit(NumaByteBuffer buf, long offset, long length);
+    }
+
+    /**
+     * A function reducing each part of a range into a value. As parts
+     * are combined in no particular order, combine must be associative
+     * and commutative.
+     */
+    public interface RangeReducer<T> {
+        T reduce(NumaByteBuffer buf, long offset, long length);
+        T combine(T left, T right);
+    }
+
+    // Ranges of a buffer processed by a task on a node
+    private static final class Split {
+        final int node;
+        final List<long[]> ranges = new ArrayList<long[]>();
+        long size = 0L;
+
+        Split(int node) {
+            this.node = node;
+        }
+
+        void add(long offset, long length) {
+            // Merge with the last range if contiguous
+            if (!ranges.isEmpty()) {
+                final long[] last = ranges.get(ranges.size() - 1);
+                if (last[0] + last[1] == offset) {
+                    last[1] += length;
+                    size += length;
+                    return;
+                }
+            }
+            ranges.add(new long[] {offset, length});
+            size += length;
+        }
+    }
+
+    // Return the node of a page, or the fallback if not resident or not a node of the executor
+    private int nodeOf(PageStatus st, int i, int fallback) {
+        final int node = st.status(i);
+        return (node >= 0 && node < executor.numNodes())? node : fallback;
+    }
+
+    // The node of a buffer that splits without a node of their own run on
+    private int fallbackNode(NumaByteBuffer buf) {
+        final int node = buf.node();
+        return (node >= 0 && node < executor.numNodes())? node : 0;
+    }
+
+    // Split a range by the node owning each page
+    private List<Split> split(NumaByteBuffer buf, long offset, long length) {
+        buf.checkRange(offset, length);
+        final List<Split> splits = new ArrayList<Split>();
+        if (length == 0) return splits;
+
+        final int numNodes = executor.numNodes();
+        final int fallback = fallbackNode(buf);
+        final PageStatus st = Numa.queryPages(buf.address() + offset, length);
+        final long end = offset + length;
+
+        // Count bytes per node first to decide the split size for each node
+        final long[] nodeSize = new long[numNodes];
+        for (int i = 0; i < st.numPages(); i++) {
+            final long b = Math.max(offset, st.pageAddress(i) - buf.address());
+            final long e = (i + 1 < st.numPages())? st.pageAddress(i + 1) - buf.address() : end;
+            nodeSize[nodeOf(st, i, fallback)] += e - b;
+        }
+        final long[] splitSize = new long[numNodes];
+        for (int n = 0; n < numNodes; n++) {
+            splitSize[n] = Math.max(MIN_SPLIT_SIZE, nodeSize[n] / (executor.threadsPerNode() * 4L));
+        }
+
+        final Split[] open = new Split[numNodes];
+        for (int i = 0; i < st.numPages(); i++) {
+            final int node = nodeOf(st, i, fallback);
+            final long b = Math.max(offset, st.pageAddress(i) - buf.address());
+            final long e = (i + 1 < st.numPages())? st.pageAddress(i + 1) - buf.address() : end;
+            if (open[node] == null) {
+                open[node] = new Split(node);
+                splits.add(open[node]);
+            }
+            open[node].add(b, e - b);
+            if (open[node].size >= splitSize[node]) open[node] = null;
+        }
+        return splits;
+    }
+
+    // Run a task per split and wait for all of them
+    private <T> List<T> run(List<Split> splits, final SplitTask<T> task) {
+        final List<Future<T>> futures = new ArrayList<Future<T>>(splits.size());
+        for (final Split s : splits) {
+            futures.add(executor.submit(new Callable<T>() {
+                @Override
+                public T call() {
+                    return task.run(s);
+                }
+            }, s.node));
+        }
+        final List<T> results = new ArrayList<T>(splits.size());
+        for (Future<T> f : futures) {
+            results.add(await(f));
+        }
+        return results;
+    }
+
+    private interface SplitTask<T> {
+        T run(Split s);
+    }
+
+    private <T> T await(Future<T> f) {
+        // A worker calling this runs queued tasks while it waits, since the
+        // splits may otherwise never get a worker when every one is waiting
+        while (!f.isDone() && executor.runQueuedTask()) {
+            // Keep helping
+        }
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Apply a visitor to every part of a range in parallel.
+     */
+    public void forEach(final NumaByteBuffer buf, long offset, long length, final RangeVisitor visitor) {
+        run(split(buf, offset, length), new SplitTask<Void>() {
+            @Override
+            public Void run(Split s) {
+                for (long[] r : s.ranges) {
+                    visitor.visit(buf, r[0], r[1]);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Reduce a range in parallel.
+     * @return null if the range is empty
+     */
+    public <T> T reduce(final NumaByteBuffer buf, long offset, long length, final RangeReducer<T> reducer) {
+        final List<T> results = run(split(buf, offset, length), new SplitTask<T>() {
+            @Override
+            public T run(Split s) {
+                T acc = null;
+                for (long[] r : s.ranges) {
+                    final T v = reducer.reduce(buf, r[0], r[1]);
+                    acc = (acc == null)? v : reducer.combine(acc, v);
+                }
+                return acc;
+            }
+        });
+        T acc = null;
+        for (T v : results) {
+            acc = (acc == null)? v : reducer.combine(acc, v);
+        }
+        return acc;
+    }
+
+    /**
+     * Fill a range with a byte value in parallel.
+     */
+    public void fill(NumaByteBuffer buf, long offset, long length, final byte value) {
+        forEach(buf, offset, length, new RangeVisitor() {
+            @Override
+            public void visit(NumaByteBuffer b, long o, long l) {
+                b.fill(o, l, value);
+            }
+        });
+    }
+
+    /**
+     * Sort a range of long values in ascending order. Contiguous runs are
+     * sorted in place in parallel on the node of each run, and then
+     * adjacent runs are merged pairwise through a temporary buffer on the
+     * buffer node. Every merge is split into parts that run in parallel,
+     * so the last rounds with a few runs also use all the workers.
+     * @param length byte length of the range, which must be a multiple of 8
+     */
+    public void sortLongs(final NumaByteBuffer buf, final long offset, long length) {
+        buf.checkRange(offset, length);
+        if (length % 8 != 0)
+            throw new IllegalArgumentException("Length must be a multiple of 8: " + length);
+        final long n = length / 8;
+        if (n < 2) return;
+
+        final int numWorkers = executor.numNodes() * executor.threadsPerNode();
+        final int numRuns = (int) Math.max(1, Math.min(numWorkers, length / MIN_SPLIT_SIZE));
+        // Bounds of runs relative to the range
+        long[] rb = new long[numRuns + 1];
+        for (int i = 0; i <= numRuns; i++) {
+            rb[i] = n * i / numRuns * 8;
+        }
+
+        final int fallback = fallbackNode(buf);
+        final List<Split> runs = new ArrayList<Split>(numRuns);
+        for (int i = 0; i < numRuns; i++) {
+            final Split s = new Split(nodeOfPage(buf.address() + offset + rb[i], fallback));
+            s.add(offset + rb[i], rb[i + 1] - rb[i]);
+            runs.add(s);
+        }
+        run(runs, new SortTask(buf));
+        if (numRuns == 1) return;
+
+        final NumaByteBuffer temp = new NumaByteBuffer(length, fallback);
+        try {
+            long src = buf.address() + offset, dst = temp.address();
+            while (rb.length > 2) {
+                final int numMerged = rb.length / 2;
+                final long[] merged = new long[numMerged + 1];
+                final List<Split> parts = new ArrayList<Split>();
+                for (int i = 0; i < numMerged; i++) {
+                    final long b = rb[2 * i];
+                    final long m = rb[Math.min(2 * i + 1, rb.length - 1)];
+                    final long e = rb[Math.min(2 * i + 2, rb.length - 1)];
+                    splitMerge(src, dst, b, m, e, Math.max(1, numWorkers / numMerged), fallback, parts);
+                    merged[i] = b;
+                }
+                merged[numMerged] = rb[rb.length - 1];
+                run(parts, new MergeTask(src, dst));
+                final long t = src;
+                src = dst;
+                dst = t;
+                rb = merged;
+            }
+            if (src == temp.address()) {
+                // Copy back in parallel, each part on the node of its pages
+                forEach(buf, offset, length, new RangeVisitor() {
+                    @Override
+                    public void visit(NumaByteBuffer b, long o, long l) {
+                        b.put(o, temp, o - offset, l);
+                    }
+                });
+            }
+        } finally {
+            temp.release();
+        }
+    }
+
+    private int nodeOfPage(long address, int fallback) {
+        return nodeOf(Numa.queryPages(address, 1), 0, fallback);
+    }
+
+    // Split the merge of runs [b, m) and [m, e) of src into parts of the output,
+    // whose ranges hold the left and right inputs and the output offset
+    private void splitMerge(long src, long dst, long b, long m, long e, int maxParts,
+                            int fallback, List<Split> parts) {
+        final long na = (m - b) / 8, nb = (e - m) / 8;
+        final int numParts = (int) Math.max(1, Math.min(maxParts, (e - b) / MIN_SPLIT_SIZE));
+        long i0 = 0, k0 = 0;
+        for (int p = 1; p <= numParts; p++) {
+            final long k1 = (na + nb) * p / numParts;
+            final long i1 = OffHeapLongSort.coRank(k1, src + b, na, src + m, nb);
+            final Split s = new Split(nodeOfPage(dst + b + k0 * 8, fallback));
+            s.ranges.add(new long[] {b + i0 * 8, (i1 - i0) * 8});
+            s.ranges.add(new long[] {m + (k0 - i0) * 8, ((k1 - i1) - (k0 - i0)) * 8});
+            s.ranges.add(new long[] {b + k0 * 8, 0L});
+            parts.add(s);
+            i0 = i1;
+            k0 = k1;
+        }
+    }
+
+    private static final class SortTask implements SplitTask<Void> {
+        private final NumaByteBuffer buf;
+
+        SortTask(NumaByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public Void run(Split s) {
+            for (long[] r : s.ranges) {
+                OffHeapLongSort.sort(buf.address() + r[0], r[1] / 8);
+            }
+            return null;
+        }
+    }
+
+    // Merge a part of two adjacent sorted runs of src into dst
+    private static final class MergeTask implements SplitTask<Void> {
+        private final long src;
+        private final long dst;
+
+        MergeTask(long src, long dst) {
+            this.src = src;
+            this.dst = dst;
+        }
+
+        @Override
+        public Void run(Split s) {
+            final long[] left = s.ranges.get(0);
+            final long[] right = s.ranges.get(1);
+            final long out = s.ranges.get(2)[0];
+            OffHeapLongSort.merge(src + left[0], left[1] / 8, src + right[0], right[1] / 8, dst + out);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.buffer;
+
+import xerial.jnuma.Numa;
+
+import java.util.Random;
+
+/**
+ * A probe that measures the read/write bandwidth and the pointer-chasing
+ * latency for every pair of a CPU node and a memory node. For each CPU
+ * node, a thread bound to the node scans and chases through a buffer
+ * allocated on each memory node, and the best of several runs is kept.
+ */
+public final class NumaProbe {
+
+    private static final int CACHE_LINE_SIZE = 64;
+
+    private static volatile NodeCostMatrix defaultMatrix = null;
+
+    // Keep the result of reads observable so that they are not eliminated
+    private static volatile long sink;
+
+    private final long bufferSize;
+    private final int iterations;
+
+    /**
+     * Create a probe with 64MB buffers, which are much larger than
+     * the last level cache, and three runs for each measurement.
+     */
+    public NumaProbe() {
+        this(64L * 1024 * 1024, 3);
+    }
+
+    public NumaProbe(long bufferSize, int iterations) {
+        if (bufferSize < CACHE_LINE_SIZE || bufferSize / CACHE_LINE_SIZE > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        if (iterations <= 0)
+            throw new IllegalArgumentException("Invalid iterations: " + iterations);
+        this.bufferSize = bufferSize / CACHE_LINE_SIZE * CACHE_LINE_SIZE;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Return the matrix measured by a default probe. The first call
+     * runs the probe, which takes a while, and later calls reuse it.
+     */
+    public static NodeCostMatrix costMatrix() {
+        NodeCostMatrix m = defaultMatrix;
+        if (m == null) {
+            synchronized (NumaProbe.class) {
+                m = defaultMatrix;
+                if (m == null) {
+                    m = defaultMatrix = new NumaProbe().measure();
+                }
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Measure the costs for all pairs of nodes. The calling thread
+     * keeps its own affinity because each CPU node is measured in
+     * a separate thread.
+     */
+    public NodeCostMatrix measure() {
+        final int numNodes = Numa.numNodes();
+        final double[][] read = new double[numNodes][numNodes];
+        final double[][] write = new double[numNodes][numNodes];
+        final double[][] latency = new double[numNodes][numNodes];
+        for (int c = 0; c < numNodes; c++) {
+            final int cpuNode = c;
+            final Throwable[] error = new Throwable[1];
+            final Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Numa.runOnNode(cpuNode);
+                        for (int m = 0; m < numNodes; m++) {
+                            measure(m, read[cpuNode], write[cpuNode], latency[cpuNode]);
+                        }
+                    } catch (Throwable e) {
+                        error[0] = e;
+                    }
+                }
+            }, "jnuma-probe-node" + cpuNode);
+            t.start();
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while probing node " + cpuNode, e);
+            }
+            if (error[0] != null)
+                throw new IllegalStateException("Failed to probe node " + cpuNode, error[0]);
+        }
+        return new NodeCostMatrix(read, write, latency);
+    }
+
+    // Fill the row entries for a given memory node
+    private void measure(int memoryNode, double[] read, double[] write, double[] latency) {
+        final NumaByteBuffer buf = new NumaByteBuffer(bufferSize, memoryNode, true);
+        try {
+            double bestRead = 0.0, bestWrite = 0.0, bestLatency = Double.MAX_VALUE;
+            for (int i = 0; i < iterations; i++) {
+                bestWrite = Math.max(bestWrite, writeBandwidth(buf));
+                bestRead = Math.max(bestRead, readBandwidth(buf));
+            }
+            buildChain(buf, bufferSize, new Random(memoryNode));
+            for (int i = 0; i < iterations; i++) {
+                bestLatency = Math.min(bestLatency, chaseLatency(buf));
+            }
+            read[memoryNode] = bestRead;
+            write[memoryNode] = bestWrite;
+            latency[memoryNode] = bestLatency;
+        } finally {
+            buf.release();
+        }
+    }
+
+    private double readBandwidth(NumaByteBuffer buf) {
+        final long start = System.nanoTime();
+        long sum = 0L;
+        for (long offset = 0; offset < bufferSize; offset += 8) {
+            sum += buf.getLong(offset);
+        }
+        final long elapsed = System.nanoTime() - start;
+        sink = sum;
+        return (double) bufferSize / Math.max(1L, elapsed);
+    }
+
+    private double writeBandwidth(NumaByteBuffer buf) {
+        final long start = System.nanoTime();
+        for (long offset = 0; offset < bufferSize; offset += 8) {
+            buf.putLong(offset, offset);
+        }
+        final long elapsed = System.nanoTime() - start;
+        return (double) bufferSize / Math.max(1L, elapsed);
+    }
+
+    /**
+     * Link the first size bytes of a buffer into a random cycle of cache lines
+     * to defeat prefetchers. Each line starts with the offset of the next one.
+     */
+    public static void buildChain(NumaByteBuffer buf, long size, Random rand) {
+        final int numLines = (int) (size / CACHE_LINE_SIZE);
+        final int[] order = new int[numLines];
+        for (int i = 0; i < numLines; i++) {
+            order[i] = i;
+        }
+        for (int i = numLines - 1; i > 0; i--) {
+            final int j = rand.nextInt(i + 1);
+            final int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+        for (int i = 0; i < numLines; i++) {
+            final long next = (long) order[(i + 1) % numLines] * CACHE_LINE_SIZE;
+            buf.putLong((long) order[i] * CACHE_LINE_SIZE, next);
+        }
+    }
+
+    private double chaseLatency(NumaByteBuffer buf) {
+        final int steps = (int) (bufferSize / CACHE_LINE_SIZE);
+        final long start = System.nanoTime();
+        long p = 0L;
+        for (int i = 0; i < steps; i++) {
+            p = buf.getLong(p);
+        }
+        final long elapsed = System.nanoTime() - start;
+        sink = p;
+        return (double) elapsed / steps;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.buffer;
+
+import xerial.jnuma.Numa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A read-mostly buffer with a replica on every NUMA node. Writers fill
+ * the primary buffer and call {@link #refresh()}, which copies it to new
+ * replicas on all nodes in parallel and swaps them in atomically under a
+ * new version. Readers access the replica on the node they run on, so
+ * lookups never cross the interconnect.
+ *
+ * The node of a reader thread comes from {@link Numa#cachedCurrentNode()},
+ * so it is checked again only at intervals. A read publishes the replicas
+ * it uses in a hazard slot of its thread, with no atomic read-modify-write
+ * on shared data, and a refresh waits until no slot holds the replicas it
+ * replaced before freeing them. Use {@link #acquireLocal()} to hold a
+ * replica across several reads; it stays valid until released.
+ */
+public final class NumaReplicatedBuffer implements AutoCloseable {
+
+    private static final class Replicas {
+        final long version;
+        final NumaByteBuffer[] buffers;
+
+        Replicas(long version, NumaByteBuffer[] buffers) {
+            this.version = version;
+            this.buffers = buffers;
+        }
+
+        NumaByteBuffer local() {
+            return buffers[Math.min(Math.max(0, Numa.cachedCurrentNode()), buffers.length - 1)];
+        }
+
+        void release() {
+            for (NumaByteBuffer b : buffers) {
+                if (b != null) b.release();
+            }
+        }
+    }
+
+    // Copy replicas with daemon threads shared by all instances
+    private static final class CopierHolder {
+        static final NumaCopier copier = new NumaCopier();
+    }
+
+    private final NumaByteBuffer primary;
+    private volatile Replicas current;
+    private volatile boolean closed = false;
+
+    // Hazard slots holding the replicas each reader thread is reading.
+    // The slots of terminated threads stay empty in the list.
+    private final ConcurrentLinkedQueue<AtomicReference<Replicas>> hazards =
+            new ConcurrentLinkedQueue<AtomicReference<Replicas>>();
+    private final ThreadLocal<AtomicReference<Replicas>> hazard = new ThreadLocal<AtomicReference<Replicas>>() {
+        @Override
+        protected AtomicReference<Replicas> initialValue() {
+            final AtomicReference<Replicas> h = new AtomicReference<Replicas>();
+            hazards.add(h);
+            return h;
+        }
+    };
+
+    /**
+     * Create a buffer whose primary is on the current node. The
+     * replicas hold zeros until the first {@link #refresh()}.
+     */
+    public NumaReplicatedBuffer(long capacity) {
+        this.primary = new NumaByteBuffer(capacity);
+        this.primary.clear();
+        this.current = replicate(0L);
+    }
+
+    /**
+     * Return the primary buffer to be filled before {@link #refresh()}.
+     */
+    public NumaByteBuffer primary() {
+        return primary;
+    }
+
+    public long size() {
+        return primary.size();
+    }
+
+    /**
+     * Return the version of the current replicas, which starts with 0.
+     */
+    public long version() {
+        return current.version;
+    }
+
+    /**
+     * Copy the primary to new replicas on every node, and swap them in.
+     * @return the version of the new replicas
+     */
+    public synchronized long refresh() {
+        if (closed)
+            throw new IllegalStateException("Buffer already closed");
+        final Replicas next = replicate(current.version + 1);
+        final Replicas prev = current;
+        current = next;
+        // Callers of acquireLocal() holding the old replicas free them on release
+        awaitReaders(prev);
+        prev.release();
+        return next.version;
+    }
+
+    private Replicas replicate(long version) {
+        final int numNodes = Numa.numNodes();
+        final NumaByteBuffer[] buffers = new NumaByteBuffer[numNodes];
+        final List<Future<NumaCopier.CopyStats>> copies = new ArrayList<Future<NumaCopier.CopyStats>>();
+        try {
+            for (int i = 0; i < numNodes; i++) {
+                buffers[i] = new NumaByteBuffer(size(), i);
+                copies.add(CopierHolder.copier.copy(primary, 0, buffers[i], 0, size()));
+            }
+            for (Future<NumaCopier.CopyStats> f : copies) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            awaitQuietly(copies);
+            new Replicas(version, buffers).release();
+            throw new IllegalStateException("Interrupted while replicating", e);
+        } catch (ExecutionException e) {
+            awaitQuietly(copies);
+            new Replicas(version, buffers).release();
+            throw new IllegalStateException("Failed to replicate", e.getCause());
+        } catch (RuntimeException e) {
+            awaitQuietly(copies);
+            new Replicas(version, buffers).release();
+            throw e;
+        }
+        return new Replicas(version, buffers);
+    }
+
+    // Wait for the copies still writing to the replicas
+    private static void awaitQuietly(List<Future<NumaCopier.CopyStats>> copies) {
+        for (Future<NumaCopier.CopyStats> f : copies) {
+            while (true) {
+                try {
+                    f.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // Retry until the copy finishes
+                } catch (Exception e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Retain the replica on the node of the current thread so that it
+     * stays valid across refreshes. The caller must release it.
+     */
+    public NumaByteBuffer acquireLocal() {
+        while (true) {
+            final NumaByteBuffer b = current.local();
+            if (b.tryRetain()) return b;
+            // A refresh freed the replica after we read it, so retry with the new one
+            if (closed)
+                throw new IllegalStateException("Buffer already closed");
+        }
+    }
+
+    // Publish the current replicas in a hazard slot, and return the local one.
+    // Checking current again after the store makes sure that a refresh
+    // replacing them sees the slot before it frees them.
+    private NumaByteBuffer enter(AtomicReference<Replicas> h) {
+        Replicas r = current;
+        while (true) {
+            h.set(r);
+            final Replicas now = current;
+            if (now == r) break;
+            r = now;
+        }
+        if (closed) {
+            h.lazySet(null);
+            throw new IllegalStateException("Buffer already closed");
+        }
+        return r.local();
+    }
+
+    // Wait until no reader is in the replicas
+    private void awaitReaders(Replicas r) {
+        for (AtomicReference<Replicas> h : hazards) {
+            while (h.get() == r) {
+                Thread.yield();
+            }
+        }
+    }
+
+    public byte getByte(long offset) {
+        final AtomicReference<Replicas> h = hazard.get();
+        try {
+            return enter(h).getByte(offset);
+        } finally {
+            h.lazySet(null);
+        }
+    }
+
+    public short getShort(long offset) {
+        final AtomicReference<Replicas> h = hazard.get();
+        try {
+            return enter(h).getShort(offset);
+        } finally {
+            h.lazySet(null);
+        }
+    }
+
+    public int getInt(long offset) {
+        final AtomicReference<Replicas> h = hazard.get();
+        try {
+            return enter(h).getInt(offset);
+        } finally {
+            h.lazySet(null);
+        }
+    }
+
+    public long getLong(long offset) {
+        final AtomicReference<Replicas> h = hazard.get();
+        try {
+            return enter(h).getLong(offset);
+        } finally {
+            h.lazySet(null);
+        }
+    }
+
+    public float getFloat(long offset) {
+        final AtomicReference<Replicas> h = hazard.get();
+        try {
+            return enter(h).getFloat(offset);
+        } finally {
+            h.lazySet(null);
+        }
+    }
+
+    public double getDouble(long offset) {
+        final AtomicReference<Replicas> h = hazard.get();
+        try {
+            return enter(h).getDouble(offset);
+        } finally {
+            h.lazySet(null);
+        }
+    }
+
+    public void get(long offset, byte[] dst, int index, int length) {
+        final AtomicReference<Replicas> h = hazard.get();
+        try {
+            enter(h).get(offset, dst, index, length);
+        } finally {
+            h.lazySet(null);
+        }
+    }
+
+    public void get(long offset, long[] dst, int index, int length) {
+        final AtomicReference<Replicas> h = hazard.get();
+        try {
+            enter(h).get(offset, dst, index, length);
+        } finally {
+            h.lazySet(null);
+        }
+    }
+
+    /**
+     * Release the primary and the current replicas. Replicas still held
+     * by readers are freed when they release them.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        awaitReaders(current);
+        current.release();
+        primary.close();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.buffer;
+
+import xerial.jnuma.Numa;
+import xerial.jnuma.utils.PlatformDependent;
+
+/**
+ * A bounded queue of long values in memory allocated on the node of its
+ * single consumer, so that the consumer reads local memory and only
+ * producers pay for the cross-node handoff.
+ *
+ * The counters of the consumer and the producers are kept in separate
+ * 128-byte blocks, two cache lines each, to avoid false sharing under
+ * adjacent-line prefetching. The memory is not managed by GC and must
+ * be freed by {@link #close()}.
+ */
+public abstract class NumaRingBuffer implements AutoCloseable {
+
+    // The consumer block holds the head, and the producer block the tail
+    static final long BLOCK_SIZE = 128L;
+    static final long HEAD_OFFSET = 0L;
+    static final long TAIL_OFFSET = BLOCK_SIZE;
+    static final long SLOTS_OFFSET = 2 * BLOCK_SIZE;
+
+    protected final int capacity;
+    protected final long mask;
+    protected final int node;
+    protected final WaitStrategy waitStrategy;
+
+    protected final long address;
+    private final long mappedSize;
+    protected final long headAddress;
+    protected final long tailAddress;
+    protected final long slotsAddress;
+
+    // Used by the consumer for taking a single value
+    private final long[] scratch = new long[1];
+    private boolean closed = false;
+
+    protected NumaRingBuffer(int capacity, int consumerNode, WaitStrategy waitStrategy, int slotSize) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.node = consumerNode;
+        this.waitStrategy = waitStrategy;
+        this.mappedSize = SLOTS_OFFSET + (long) capacity * slotSize;
+        this.address = Numa.allocateOnNode(mappedSize, consumerNode);
+        PlatformDependent.UNSAFE.setMemory(address, SLOTS_OFFSET, (byte) 0);
+        this.headAddress = address + HEAD_OFFSET;
+        this.tailAddress = address + TAIL_OFFSET;
+        this.slotsAddress = address + SLOTS_OFFSET;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Return the node where this buffer is allocated.
+     */
+    public int node() {
+        return node;
+    }
+
+    /**
+     * Return the number of queued values, which is only an estimate
+     * while producers and the consumer are running.
+     */
+    public long size() {
+        final long head = PlatformDependent.UNSAFE.getLongVolatile(headAddress);
+        final long tail = PlatformDependent.UNSAFE.getLongVolatile(tailAddress);
+        return Math.max(0L, Math.min(capacity, tail - head));
+    }
+
+    /**
+     * Add a value if there is room.
+     * @return false if this buffer is full
+     */
+    public abstract boolean offer(long value);
+
+    /**
+     * Add values as many as there is room for, and publish them at once.
+     * @return the number of values added
+     */
+    public abstract int offer(long[] src, int index, int length);
+
+    /**
+     * Take values as many as available up to a given length.
+     * Only a single consumer thread may call this.
+     * @return the number of values taken
+     */
+    public abstract int poll(long[] dst, int index, int length);
+
+    /**
+     * Add a value, waiting with the wait strategy while this buffer is full.
+     */
+    public void put(long value) {
+        for (int i = 0; !offer(value); i++) {
+            waitStrategy.idle(i);
+        }
+    }
+
+    /**
+     * Add all the values, waiting with the wait strategy while this buffer is full.
+     */
+    public void put(long[] src, int index, int length) {
+        int attempts = 0;
+        while (length > 0) {
+            final int n = offer(src, index, length);
+            if (n == 0) {
+                waitStrategy.idle(attempts++);
+            } else {
+                index += n;
+                length -= n;
+                attempts = 0;
+            }
+        }
+    }
+
+    /**
+     * Take a value, waiting with the wait strategy while this buffer is empty.
+     */
+    public long take() {
+        take(scratch, 0, 1);
+        return scratch[0];
+    }
+
+    /**
+     * Take at least one value, waiting with the wait strategy while
+     * this buffer is empty.
+     * @return the number of values taken
+     */
+    public int take(long[] dst, int index, int length) {
+        int n;
+        for (int i = 0; (n = poll(dst, index, length)) == 0; i++) {
+            waitStrategy.idle(i);
+        }
+        return n;
+    }
+
+    /**
+     * Free the memory of this buffer, which no thread may use anymore.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        Numa.free(address, mappedSize);
+    }
+}
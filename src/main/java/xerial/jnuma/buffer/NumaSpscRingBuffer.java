@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.buffer;
+
+import xerial.jnuma.utils.PlatformDependent;
+
+/**
+ * A ring buffer for a single producer and a single consumer. Each side
+ * caches the counter of the other side in its own block and reads the
+ * shared counter only when the cached value says the buffer is full
+ * or empty.
+ */
+public final class NumaSpscRingBuffer extends NumaRingBuffer {
+
+    // The tail seen by the consumer, and the head seen by the producer
+    private final long tailCacheAddress = headAddress + 8;
+    private final long headCacheAddress = tailAddress + 8;
+
+    public NumaSpscRingBuffer(int capacity, int consumerNode) {
+        this(capacity, consumerNode, WaitStrategies.YIELD);
+    }
+
+    public NumaSpscRingBuffer(int capacity, int consumerNode, WaitStrategy waitStrategy) {
+        super(capacity, consumerNode, waitStrategy, 8);
+    }
+
+    // Return the room for values seen by the producer, up to a wanted size
+    private long room(long tail, long wanted) {
+        long head = PlatformDependent.UNSAFE.getLong(headCacheAddress);
+        if (capacity - (tail - head) < wanted) {
+            head = PlatformDependent.UNSAFE.getLongVolatile(headAddress);
+            PlatformDependent.UNSAFE.putLong(headCacheAddress, head);
+        }
+        return capacity - (tail - head);
+    }
+
+    @Override
+    public boolean offer(long value) {
+        final long tail = PlatformDependent.UNSAFE.getLong(tailAddress);
+        if (room(tail, 1) < 1) return false;
+        PlatformDependent.UNSAFE.putLong(slotsAddress + ((tail & mask) << 3), value);
+        PlatformDependent.UNSAFE.putOrderedLong(tailAddress, tail + 1);
+        return true;
+    }
+
+    @Override
+    public int offer(long[] src, int index, int length) {
+        final long tail = PlatformDependent.UNSAFE.getLong(tailAddress);
+        final int n = (int) Math.min(length, room(tail, length));
+        for (int i = 0; i < n; i++) {
+            PlatformDependent.UNSAFE.putLong(slotsAddress + (((tail + i) & mask) << 3), src[index + i]);
+        }
+        if (n > 0) PlatformDependent.UNSAFE.putOrderedLong(tailAddress, tail + n);
+        return n;
+    }
+
+    @Override
+    public int poll(long[] dst, int index, int length) {
+        final long head = PlatformDependent.UNSAFE.getLong(headAddress);
+        long tail = PlatformDependent.UNSAFE.getLong(tailCacheAddress);
+        if (tail - head < length) {
+            tail = PlatformDependent.UNSAFE.getLongVolatile(tailAddress);
+            PlatformDependent.UNSAFE.putLong(tailCacheAddress, tail);
+        }
+        final int n = (int) Math.min(length, tail - head);
+        for (int i = 0; i < n; i++) {
+            dst[index + i] = PlatformDependent.UNSAFE.getLong(slotsAddress + (((head + i) & mask) << 3));
+        }
+        if (n > 0) PlatformDependent.UNSAFE.putOrderedLong(headAddress, head + n);
+        return n;
+    }
+}
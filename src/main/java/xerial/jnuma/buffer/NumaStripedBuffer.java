@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.buffer;
+
+import xerial.jnuma.Numa;
+
+/**
+ * A buffer that spans all NUMA nodes with one contiguous segment per
+ * node, presented as a single long-indexed address space. Unlike
+ * interleaved memory, each node holds a contiguous part of the space,
+ * so partitioned workers can find the segment of their part with
+ * {@link #segmentFor(long)} and stay on its node.
+ *
+ * Segment i is allocated on node i, and every segment but the last is
+ * a multiple of the page size. Hence aligned values never cross segment
+ * boundaries; multi-byte accessors reject values that do.
+ */
+public final class NumaStripedBuffer implements AutoCloseable {
+
+    private final NumaByteBuffer[] segments;
+
+    // The first index of each segment, followed by the total size
+    private final long[] starts;
+
+    /**
+     * Allocate a buffer split into segments of sizes
+     * proportional to the free memory of each node.
+     */
+    public NumaStripedBuffer(long capacity) {
+        this(proportionalSizes(capacity));
+    }
+
+    /**
+     * Allocate a buffer with user-specified segment sizes.
+     * @param segmentSizes byte size of the segment on each node,
+     *                     which may be 0 to skip the node; all but the
+     *                     last must be multiples of the page size
+     */
+    public NumaStripedBuffer(long[] segmentSizes) {
+        if (segmentSizes.length == 0 || segmentSizes.length > Numa.numNodes())
+            throw new IllegalArgumentException("Invalid number of segments: " + segmentSizes.length);
+        final long pageSize = Numa.pageSize();
+        for (int i = 0; i < segmentSizes.length - 1; i++) {
+            if (segmentSizes[i] % pageSize != 0)
+                throw new IllegalArgumentException(String.format(
+                        "Segment size must be a multiple of %d: %d", pageSize, segmentSizes[i]));
+        }
+        this.segments = new NumaByteBuffer[segmentSizes.length];
+        this.starts = new long[segmentSizes.length + 1];
+        try {
+            for (int i = 0; i < segmentSizes.length; i++) {
+                if (segmentSizes[i] < 0)
+                    throw new IllegalArgumentException("Invalid segment size: " + segmentSizes[i]);
+                segments[i] = new NumaByteBuffer(segmentSizes[i], i);
+                starts[i + 1] = starts[i] + segmentSizes[i];
+            }
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Split a capacity by the free memory of each node in page units
+    static long[] proportionalSizes(long capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        final int numNodes = Numa.numNodes();
+        final long[] free = new long[numNodes];
+        double total = 0.0;
+        for (int i = 0; i < numNodes; i++) {
+            free[i] = Math.max(0L, Numa.freeSize(i));
+            total += free[i];
+        }
+        final long pageSize = Numa.pageSize();
+        final long[] sizes = new long[numNodes];
+        long assigned = 0L;
+        int last = numNodes - 1;
+        for (int i = 0; i < numNodes; i++) {
+            final double share = (total > 0.0)? free[i] / total : 1.0 / numNodes;
+            sizes[i] = (long) (capacity * share) / pageSize * pageSize;
+            assigned += sizes[i];
+            if (share > 0.0) last = i;
+        }
+        // Give the rest to the last node with free memory
+        sizes[last] += capacity - assigned;
+        return sizes;
+    }
+
+    public long size() {
+        return starts[segments.length];
+    }
+
+    public int numSegments() {
+        return segments.length;
+    }
+
+    /**
+     * Return the buffer of the i-th segment, which is on node i.
+     */
+    public NumaByteBuffer segment(int i) {
+        return segments[i];
+    }
+
+    /**
+     * Return the first index of the i-th segment.
+     */
+    public long segmentStart(int i) {
+        return starts[i];
+    }
+
+    /**
+     * Return the segment holding a given index.
+     */
+    public int segmentFor(long index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index out of range: " + index);
+        // Find the last segment starting at or before the index,
+        // which skips empty segments
+        int lo = 0, hi = segments.length - 1;
+        while (lo < hi) {
+            final int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= index) lo = mid; else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * Return the node of the memory at a given index.
+     */
+    public int nodeOf(long index) {
+        return segments[segmentFor(index)].node();
+    }
+
+    // Return the segment holding [index, index + width)
+    private int segmentFor(long index, int width) {
+        final int s = segmentFor(index);
+        if (index + width > size())
+            throw new IndexOutOfBoundsException("Index out of range: " + index);
+        if (index + width > starts[s + 1])
+            throw new IllegalArgumentException(
+                    String.format("A value of %d bytes at %d crosses a segment boundary", width, index));
+        return s;
+    }
+
+    public byte getByte(long index) {
+        final int s = segmentFor(index);
+        return segments[s].getByte(index - starts[s]);
+    }
+
+    public void putByte(long index, byte value) {
+        final int s = segmentFor(index);
+        segments[s].putByte(index - starts[s], value);
+    }
+
+    public int getInt(long index) {
+        final int s = segmentFor(index, 4);
+        return segments[s].getInt(index - starts[s]);
+    }
+
+    public void putInt(long index, int value) {
+        final int s = segmentFor(index, 4);
+        segments[s].putInt(index - starts[s], value);
+    }
+
+    public long getLong(long index) {
+        final int s = segmentFor(index, 8);
+        return segments[s].getLong(index - starts[s]);
+    }
+
+    public void putLong(long index, long value) {
+        final int s = segmentFor(index, 8);
+        segments[s].putLong(index - starts[s], value);
+    }
+
+    public double getDouble(long index) {
+        final int s = segmentFor(index, 8);
+        return segments[s].getDouble(index - starts[s]);
+    }
+
+    public void putDouble(long index, double value) {
+        final int s = segmentFor(index, 8);
+        segments[s].putDouble(index - starts[s], value);
+    }
+
+    /**
+     * Release all the segments.
+     */
+    @Override
+    public void close() {
+        for (NumaByteBuffer s : segments) {
+            if (s != null) s.close();
+        }
+    }
+}
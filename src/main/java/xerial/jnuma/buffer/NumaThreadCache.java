@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.buffer;
+
+/**
+ * A per-thread cache of released NUMA memory. Each node and size class
+ * has a bounded magazine of NumaMemory objects that stay registered in
+ * the allocator, so same-node allocations are served without touching
+ * the shared registry. When a magazine is full, its older half spills
+ * back to the allocator.
+ *
+ * If the owner thread dies, the cached objects become unreachable and
+ * the allocator collector returns them to the node.
+ */
+final class NumaThreadCache {
+
+    private final NumaMemoryAllocator allocator;
+    private final int magazineSize;
+
+    // Magazines indexed by [node][size class], allocated lazily
+    private final NumaMemory[][][] magazines;
+    private final int[][] counts;
+
+    public NumaThreadCache(NumaMemoryAllocator allocator, int numNodes,
+                           int magazineSize, long maxSize) {
+        this.allocator = allocator;
+        this.magazineSize = magazineSize;
+        final int numClasses = NumaArena.sizeClass(maxSize) - NumaArena.MIN_CHUNK_SHIFT + 1;
+        this.magazines = new NumaMemory[numNodes][numClasses][];
+        this.counts = new int[numNodes][numClasses];
+    }
+
+    /**
+     * Take a cached memory of the exact capacity on a given node.
+     * @return null if no memory is found
+     */
+    public NumaMemory poll(long capacity, int node) {
+        final int sc = NumaArena.sizeClass(capacity) - NumaArena.MIN_CHUNK_SHIFT;
+        final NumaMemory[] magazine = magazines[node][sc];
+        final int count = counts[node][sc];
+        // Look for the most recently released one since
+        // it is likely to be still in CPU caches
+        for (int i = count - 1; i >= 0; i--) {
+            final NumaMemory m = magazine[i];
+            if (m.size() == capacity) {
+                magazine[i] = magazine[count - 1];
+                magazine[count - 1] = null;
+                counts[node][sc] = count - 1;
+                return m;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Put a released memory into the cache.
+     */
+    public void offer(NumaMemory m) {
+        final int node = m.node();
+        final int sc = NumaArena.sizeClass(m.size()) - NumaArena.MIN_CHUNK_SHIFT;
+        NumaMemory[] magazine = magazines[node][sc];
+        if (magazine == null) {
+            magazine = magazines[node][sc] = new NumaMemory[magazineSize];
+        }
+        int count = counts[node][sc];
+        if (count == magazineSize) {
+            // Spill the older half to the allocator
+            final int spill = Math.max(1, count / 2);
+            for (int i = 0; i < spill; i++) {
+                allocator.spill(magazine[i]);
+            }
+            System.arraycopy(magazine, spill, magazine, 0, count - spill);
+            for (int i = count - spill; i < count; i++) {
+                magazine[i] = null;
+            }
+            count -= spill;
+        }
+        magazine[count] = m;
+        counts[node][sc] = count + 1;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.buffer;
+
+import xerial.jnuma.utils.PlatformDependent;
+
+/**
+ * Sort and merge long values in native memory in place, so that sorting
+ * a NUMA buffer needs no copy on the Java heap. Sorting is an introsort,
+ * i.e., a quicksort falling back on heapsort when partitions go badly.
+ */
+final class OffHeapLongSort {
+
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    // Runs shorter than this are copied element by element in a merge
+    private static final long BULK_COPY_THRESHOLD = 8;
+
+    private OffHeapLongSort() {}
+
+    private static long get(long base, long i) {
+        return PlatformDependent.UNSAFE.getLong(base + (i << 3));
+    }
+
+    private static void set(long base, long i, long v) {
+        PlatformDependent.UNSAFE.putLong(base + (i << 3), v);
+    }
+
+    private static void swap(long base, long i, long j) {
+        final long t = get(base, i);
+        set(base, i, get(base, j));
+        set(base, j, t);
+    }
+
+    /**
+     * Sort n long values starting at a given address in ascending order.
+     */
+    static void sort(long base, long n) {
+        if (n < 2) return;
+        introSort(base, 0, n, 2 * (64 - Long.numberOfLeadingZeros(n)));
+    }
+
+    private static void introSort(long a, long lo, long hi, int depth) {
+        while (hi - lo > INSERTION_SORT_THRESHOLD) {
+            if (depth-- == 0) {
+                heapSort(a, lo, hi);
+                return;
+            }
+            final long p = partition(a, lo, hi);
+            // Recurse into the smaller part to bound the stack depth
+            if (p - lo < hi - p) {
+                introSort(a, lo, p, depth);
+                lo = p;
+            } else {
+                introSort(a, p, hi, depth);
+                hi = p;
+            }
+        }
+        insertionSort(a, lo, hi);
+    }
+
+    // Hoare partition around the median of three, which leaves
+    // both [lo, p) and [p, hi) non-empty
+    private static long partition(long a, long lo, long hi) {
+        final long mid = lo + ((hi - lo) >>> 1);
+        if (get(a, mid) < get(a, lo)) swap(a, mid, lo);
+        if (get(a, hi - 1) < get(a, lo)) swap(a, hi - 1, lo);
+        if (get(a, hi - 1) < get(a, mid)) swap(a, hi - 1, mid);
+        final long pivot = get(a, mid);
+        long i = lo - 1, j = hi;
+        while (true) {
+            do { i++; } while (get(a, i) < pivot);
+            do { j--; } while (get(a, j) > pivot);
+            if (i >= j) return j + 1;
+            swap(a, i, j);
+        }
+    }
+
+    private static void insertionSort(long a, long lo, long hi) {
+        for (long i = lo + 1; i < hi; i++) {
+            final long v = get(a, i);
+            long j = i - 1;
+            while (j >= lo && get(a, j) > v) {
+                set(a, j + 1, get(a, j));
+                j--;
+            }
+            set(a, j + 1, v);
+        }
+    }
+
+    private static void heapSort(long a, long lo, long hi) {
+        final long n = hi - lo;
+        for (long i = n / 2 - 1; i >= 0; i--) {
+            siftDown(a, lo, i, n);
+        }
+        for (long end = n - 1; end > 0; end--) {
+            swap(a, lo, lo + end);
+            siftDown(a, lo, 0, end);
+        }
+    }
+
+    private static void siftDown(long a, long lo, long i, long n) {
+        final long v = get(a, lo + i);
+        while (true) {
+            long child = 2 * i + 1;
+            if (child >= n) break;
+            if (child + 1 < n && get(a, lo + child + 1) > get(a, lo + child)) child++;
+            if (get(a, lo + child) <= v) break;
+            set(a, lo + i, get(a, lo + child));
+            i = child;
+        }
+        set(a, lo + i, v);
+    }
+
+    /**
+     * Return how many values of a come first among the first k values
+     * of merging sorted a[0, na) and b[0, nb), where ties take a first.
+     */
+    static long coRank(long k, long a, long na, long b, long nb) {
+        long lo = Math.max(0, k - nb), hi = Math.min(k, na);
+        while (lo < hi) {
+            final long i = (lo + hi) >>> 1;
+            final long j = k - i;
+            if (j > 0 && get(a, i) <= get(b, j - 1)) {
+                lo = i + 1;
+            } else {
+                hi = i;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Merge sorted a[0, na) and b[0, nb) into out. Each run of values
+     * taken from the same side is copied at once.
+     */
+    static void merge(long a, long na, long b, long nb, long out) {
+        long i = 0, j = 0;
+        while (i < na && j < nb) {
+            final long bj = get(b, j);
+            if (get(a, i) <= bj) {
+                final long s = i;
+                do { i++; } while (i < na && get(a, i) <= bj);
+                out = copy(a, s, i - s, out);
+            } else {
+                final long ai = get(a, i);
+                final long s = j;
+                do { j++; } while (j < nb && get(b, j) < ai);
+                out = copy(b, s, j - s, out);
+            }
+        }
+        out = copy(a, i, na - i, out);
+        copy(b, j, nb - j, out);
+    }
+
+    // Copy n values from src[from] to out, and return the address after them
+    private static long copy(long src, long from, long n, long out) {
+        if (n < BULK_COPY_THRESHOLD) {
+            for (long k = 0; k < n; k++) {
+                set(out, k, get(src, from + k));
+            }
+        } else {
+            PlatformDependent.UNSAFE.copyMemory(src + (from << 3), out, n << 3);
+        }
+        return out + (n << 3);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.buffer;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Common wait strategies, from the lowest latency to the lowest CPU usage.
+ */
+public final class WaitStrategies {
+
+    /** Busy-spin, which burns a CPU but reacts fastest. */
+    public static final WaitStrategy SPIN = new WaitStrategy() {
+        @Override
+        public void idle(int attempts) {
+            // Nothing to do
+        }
+    };
+
+    /** Spin for a while and then yield the CPU to other threads. */
+    public static final WaitStrategy YIELD = new WaitStrategy() {
+        @Override
+        public void idle(int attempts) {
+            if (attempts >= 100) Thread.yield();
+        }
+    };
+
+    /** Spin, yield and then park for 50 microseconds at a time. */
+    public static final WaitStrategy PARK = park(50000L);
+
+    private WaitStrategies() {}
+
+    /**
+     * Return a strategy that spins, yields and then parks
+     * for a given time at a time.
+     */
+    public static WaitStrategy park(final long nanos) {
+        return new WaitStrategy() {
+            @Override
+            public void idle(int attempts) {
+                if (attempts >= 200) {
+                    LockSupport.parkNanos(nanos);
+                } else if (attempts >= 100) {
+                    Thread.yield();
+                }
+            }
+        };
+    }
+}
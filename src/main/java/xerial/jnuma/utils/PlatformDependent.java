@@ -59,6 +59,20 @@ public final class PlatformDependent {
             _UNSAFE.putLong(address, value);
         }
 
+        public static long getLongVolatile(long address) {
+            return _UNSAFE.getLongVolatile(null, address);
+        }
+
+        // Store a value without a full fence, which is visible to
+        // other threads after the preceding stores
+        public static void putOrderedLong(long address, long value) {
+            _UNSAFE.putOrderedLong(null, address, value);
+        }
+
+        public static boolean compareAndSwapLong(long address, long expected, long value) {
+            return _UNSAFE.compareAndSwapLong(null, address, expected, value);
+        }
+
         public static float getFloat(long address) {
             return _UNSAFE.getFloat(address);
         }
@@ -86,6 +100,52 @@ public final class PlatformDependent {
         public static void setMemory(long address, long size, byte value) {
             _UNSAFE.setMemory(address, size, value);
         }
+
+        public static int pageSize() {
+            return _UNSAFE.pageSize();
+        }
+
+        public static final long BYTE_ARRAY_OFFSET = _UNSAFE.arrayBaseOffset(byte[].class);
+        public static final long SHORT_ARRAY_OFFSET = _UNSAFE.arrayBaseOffset(short[].class);
+        public static final long INT_ARRAY_OFFSET = _UNSAFE.arrayBaseOffset(int[].class);
+        public static final long LONG_ARRAY_OFFSET = _UNSAFE.arrayBaseOffset(long[].class);
+        public static final long FLOAT_ARRAY_OFFSET = _UNSAFE.arrayBaseOffset(float[].class);
+        public static final long DOUBLE_ARRAY_OFFSET = _UNSAFE.arrayBaseOffset(double[].class);
+
+        // Copy at most 1MB at a time so that a large copy
+        // does not delay safepoints
+        private static final long COPY_CHUNK_SIZE = 1024L * 1024L;
+
+        /**
+         * Copy memory between arrays and native memory. Pass null
+         * as an object to specify a native address as an offset.
+         */
+        public static void copyMemory(
+                Object src, long srcOffset, Object dst, long dstOffset, long length) {
+            while (length > 0) {
+                final long size = Math.min(length, COPY_CHUNK_SIZE);
+                _UNSAFE.copyMemory(src, srcOffset, dst, dstOffset, size);
+                srcOffset += size;
+                dstOffset += size;
+                length -= size;
+            }
+        }
+
+        /**
+         * Copy native memory. The ranges may overlap.
+         */
+        public static void copyMemory(long srcAddress, long dstAddress, long length) {
+            if (dstAddress <= srcAddress || dstAddress >= srcAddress + length) {
+                copyMemory(null, srcAddress, null, dstAddress, length);
+                return;
+            }
+            // Copy from the tail not to overwrite the source
+            while (length > 0) {
+                final long size = Math.min(length, COPY_CHUNK_SIZE);
+                length -= size;
+                _UNSAFE.copyMemory(srcAddress + length, dstAddress + length, size);
+            }
+        }
     }
 
     // Reference to the Unsafe implementation
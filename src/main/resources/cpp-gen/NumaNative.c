@@ -19,12 +19,27 @@
 #include "NumaNative.h"
 
 #include <numa.h>
+#include <numaif.h>
 
 #include <sched.h>
 #include <stdio.h>
 #include <stdint.h>
 #include <sched.h>
 #include <errno.h>
+#include <unistd.h>
+#include <sys/mman.h>
+
+#ifndef MAP_HUGE_SHIFT
+#define MAP_HUGE_SHIFT 26
+#endif
+
+// The size of transparent huge pages on x86_64
+#define THP_SIZE (2UL * 1024 * 1024)
+
+// Available since Linux 5.14
+#ifndef MADV_POPULATE_WRITE
+#define MADV_POPULATE_WRITE 23
+#endif
 
 inline void throwException(JNIEnv *env, jobject self, int errorCode) {
   do {
@@ -79,6 +94,26 @@ JNIEXPORT jint JNICALL Java_xerial_jnuma_NumaNative_currentCpu
   return sched_getcpu();
 }
 
+/*
+ * Class:     xerial_jnuma_NumaNative
+ * Method:    nodeOfCpu
+ * Signature: (I)I
+ */
+JNIEXPORT jint JNICALL Java_xerial_jnuma_NumaNative_nodeOfCpu
+    (JNIEnv *env, jobject obj, jint cpu) {
+  return numa_node_of_cpu((int) cpu);
+}
+
+/*
+ * Class:     xerial_jnuma_NumaNative
+ * Method:    numConfiguredCpus
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_xerial_jnuma_NumaNative_numConfiguredCpus
+    (JNIEnv *env, jobject obj) {
+  return numa_num_configured_cpus();
+}
+
 /*
  * Class:     xerial_jnuma_NumaNative
  * Method:    nodeSize
@@ -178,6 +213,48 @@ JNIEXPORT void JNICALL Java_xerial_jnuma_NumaNative_free
   }
 }
 
+// Build a libnuma node mask from a Java bit mask, or return NULL
+// with an exception pending
+static struct bitmask* toNodeMask(JNIEnv *env, jobject obj, jlongArray maskBuf) {
+  struct bitmask* mask = numa_allocate_nodemask();
+  if (mask == NULL) {
+    throwException(env, obj, ENOMEM);
+    return NULL;
+  }
+  const jsize len = (*env)->GetArrayLength(env, maskBuf);
+  jlong* in = (*env)->GetLongArrayElements(env, maskBuf, 0);
+  if (in == 0) {
+    numa_bitmask_free(mask);
+    return NULL;
+  }
+  for (unsigned int i = 0; i < (unsigned int) len * 64 && i < mask->size; ++i) {
+    if (((uint64_t) in[i / 64]) & ((uint64_t) 1 << (i % 64)))
+      numa_bitmask_setbit(mask, i);
+  }
+  (*env)->ReleaseLongArrayElements(env, maskBuf, in, JNI_ABORT);
+  return mask;
+}
+
+/*
+ * Class:     xerial_jnuma_NumaNative
+ * Method:    allocateInterleavedSubset
+ * Signature: (J[J)J
+ */
+JNIEXPORT jlong JNICALL Java_xerial_jnuma_NumaNative_allocateInterleavedSubset
+    (JNIEnv *env, jobject obj, jlong capacity, jlongArray maskBuf) {
+  struct bitmask* mask = toNodeMask(env, obj, maskBuf);
+  if (mask == NULL) {
+    return 0L;
+  }
+  void* mem = numa_alloc_interleaved_subset((size_t) capacity, mask);
+  numa_bitmask_free(mask);
+  if(mem != NULL) {
+    return (jlong) mem;
+  }
+  throwException(env, obj, 11);
+  return 0L;
+}
+
 /*
  * Class:     xerial_jnuma_NumaNative
  * Method:    preferredNode
@@ -205,21 +282,41 @@ JNIEXPORT void JNICALL Java_xerial_jnuma_NumaNative_setLocalAlloc
  */
 JNIEXPORT void JNICALL Java_xerial_jnuma_NumaNative_getAffinity
     (JNIEnv *env, jobject obj, jint pid, jlongArray maskBuf, jint numCPUs) {
-  uint64_t* in = (uint64_t*) (*env)->GetPrimitiveArrayCritical(env, (jarray) maskBuf, 0);
-  cpu_set_t mask;
-  if (in == 0) {
-    throwException(env, obj, 10);
+  // Grow the mask until it covers the CPU mask of the kernel,
+  // which may have more CPUs than cpu_set_t does
+  int n = (numCPUs < CPU_SETSIZE)? CPU_SETSIZE : (int) numCPUs;
+  cpu_set_t* mask = NULL;
+  size_t size = 0;
+  while (1) {
+    mask = CPU_ALLOC(n);
+    if (mask == NULL) {
+      throwException(env, obj, ENOMEM);
+      return;
+    }
+    size = CPU_ALLOC_SIZE(n);
+    CPU_ZERO_S(size, mask);
+    if (sched_getaffinity((pid_t) pid, size, mask) == 0) {
+      break;
+    }
+    const int err = errno;
+    CPU_FREE(mask);
+    if (err != EINVAL || n >= (1 << 20)) {
+      throwException(env, obj, err);
+      return;
+    }
+    n *= 2;
   }
-  CPU_ZERO(&mask);
-  const int ret = sched_getaffinity(0, sizeof(mask), &mask);
-  if (ret < 0) {
-    throwException(env, obj, ret);
+  const jsize len = (*env)->GetArrayLength(env, maskBuf);
+  for (jsize w = 0; w < len; ++w) {
+    uint64_t bits = 0;
+    for (int b = 0; b < 64; ++b) {
+      const int cpu = w * 64 + b;
+      if (cpu < numCPUs && CPU_ISSET_S(cpu, size, mask))
+        bits |= ((uint64_t) 1) << b;
+    }
+    (*env)->SetLongArrayRegion(env, maskBuf, w, 1, (const jlong*) &bits);
   }
-  for (int i = 0; i < numCPUs; ++i) {
-    if (CPU_ISSET(i, &mask))
-      in[i / 64] |= (uint64_t) (((uint64_t) 1) << (i % 64));
-  }
-  (*env)->ReleasePrimitiveArrayCritical(env, (jarray) maskBuf, (void*) in, (jint) 0);
+  CPU_FREE(mask);
 }
 
 /*
@@ -229,17 +326,30 @@ JNIEXPORT void JNICALL Java_xerial_jnuma_NumaNative_getAffinity
  */
 JNIEXPORT void JNICALL Java_xerial_jnuma_NumaNative_setAffinity
     (JNIEnv *env, jobject obj, jint pid, jlongArray maskBuf, jint numCPUs) {
-  uint64_t* in = (uint64_t*) (*env)->GetPrimitiveArrayCritical(env, (jarray) maskBuf, 0);
-  cpu_set_t mask;
-  CPU_ZERO(&mask);
-  for (int i = 0; i < numCPUs; ++i) {
-    if (in[i / 64] & ((uint64_t) 1 << (i % 64)))
-      CPU_SET((int) i, &mask);
+  const jsize len = (*env)->GetArrayLength(env, maskBuf);
+  jlong* in = (*env)->GetLongArrayElements(env, maskBuf, 0);
+  if (in == 0) {
+    throwException(env, obj, 10);
+    return;
   }
-  (*env)->ReleasePrimitiveArrayCritical(env, (jarray) maskBuf, (void*) in, (jint) 0);
-  const int ret = sched_setaffinity(0, sizeof(cpu_set_t), &mask);
+  cpu_set_t* mask = CPU_ALLOC(numCPUs);
+  if (mask == NULL) {
+    (*env)->ReleaseLongArrayElements(env, maskBuf, in, JNI_ABORT);
+    throwException(env, obj, ENOMEM);
+    return;
+  }
+  const size_t size = CPU_ALLOC_SIZE(numCPUs);
+  CPU_ZERO_S(size, mask);
+  for (int i = 0; i < numCPUs && i / 64 < len; ++i) {
+    if (((uint64_t) in[i / 64]) & ((uint64_t) 1 << (i % 64)))
+      CPU_SET_S(i, size, mask);
+  }
+  (*env)->ReleaseLongArrayElements(env, maskBuf, in, JNI_ABORT);
+  const int ret = sched_setaffinity((pid_t) pid, size, mask);
+  const int err = errno;
+  CPU_FREE(mask);
   if (ret < 0) {
-    throwException(env, obj, errno);
+    throwException(env, obj, err);
   }
 }
 
@@ -266,10 +376,10 @@ JNIEXPORT void JNICALL Java_xerial_jnuma_NumaNative_runOnNode
 /*
  * Class:     xerial_jnuma_NumaNative
  * Method:    toNode
- * Signature: (JII)V
+ * Signature: (JJI)V
  */
-JNIEXPORT void JNICALL Java_xerial_jnuma_NumaNative_toNode__JII
-    (JNIEnv *env, jobject obj, jlong address, jint length, jint node) {
+JNIEXPORT void JNICALL Java_xerial_jnuma_NumaNative_toNode__JJI
+    (JNIEnv *env, jobject obj, jlong address, jlong length, jint node) {
   numa_tonode_memory((void*) address, (size_t) length, (int) node);
 }
 
@@ -285,3 +395,103 @@ JNIEXPORT void JNICALL Java_xerial_jnuma_NumaNative_toNode__Ljava_lang_Object_2I
   (*env)->ReleasePrimitiveArrayCritical(env, (jarray) array, buf, (jint) 0);
 }
 
+/*
+ * Class:     xerial_jnuma_NumaNative
+ * Method:    toNodes
+ * Signature: (JJ[J)V
+ */
+JNIEXPORT void JNICALL Java_xerial_jnuma_NumaNative_toNodes
+    (JNIEnv *env, jobject obj, jlong address, jlong length, jlongArray maskBuf) {
+  struct bitmask* mask = toNodeMask(env, obj, maskBuf);
+  if (mask == NULL) {
+    return;
+  }
+  numa_tonodemask_memory((void*) address, (size_t) length, mask);
+  numa_bitmask_free(mask);
+}
+
+/*
+ * Class:     xerial_jnuma_NumaNative
+ * Method:    movePages
+ * Signature: (I[J[I[I)V
+ */
+JNIEXPORT void JNICALL Java_xerial_jnuma_NumaNative_movePages
+    (JNIEnv *env, jobject obj, jint count, jlongArray pageBuf, jintArray nodeBuf, jintArray statusBuf) {
+  // Not critical arrays since moving pages may take long
+  jlong* pages = (*env)->GetLongArrayElements(env, pageBuf, 0);
+  jint* nodes = (nodeBuf == NULL)? NULL : (*env)->GetIntArrayElements(env, nodeBuf, 0);
+  jint* status = (*env)->GetIntArrayElements(env, statusBuf, 0);
+  // A failure to get the arrays leaves an OutOfMemoryError pending in the JVM
+  int err = 0;
+  if (pages != 0 && status != 0 && (nodeBuf == NULL || nodes != 0)) {
+    // A NULL node array queries the current node of each page
+    const int ret = numa_move_pages(0, (unsigned long) count, (void**) pages,
+        (const int*) nodes, (int*) status, MPOL_MF_MOVE);
+    if (ret < 0) {
+      err = errno;
+    }
+  }
+  if (pages != 0) {
+    (*env)->ReleaseLongArrayElements(env, pageBuf, pages, JNI_ABORT);
+  }
+  if (nodes != 0) {
+    (*env)->ReleaseIntArrayElements(env, nodeBuf, nodes, JNI_ABORT);
+  }
+  if (status != 0) {
+    (*env)->ReleaseIntArrayElements(env, statusBuf, status, 0);
+  }
+  if (err != 0) {
+    throwException(env, obj, err);
+  }
+}
+
+/*
+ * Class:     xerial_jnuma_NumaNative
+ * Method:    allocateHugePages
+ * Signature: (JIJ[J)J
+ */
+JNIEXPORT jlong JNICALL Java_xerial_jnuma_NumaNative_allocateHugePages
+    (JNIEnv *env, jobject obj, jlong capacity, jint node, jlong hugePageSize, jlongArray obtained) {
+  // The capacity is rounded up to a multiple of the huge page size in Java
+  const size_t size = (size_t) capacity;
+  jlong pageSize = hugePageSize;
+  void* mem = mmap(NULL, size, PROT_READ | PROT_WRITE,
+      MAP_PRIVATE | MAP_ANONYMOUS | MAP_HUGETLB
+          | (__builtin_ctzll((unsigned long long) hugePageSize) << MAP_HUGE_SHIFT),
+      -1, 0);
+  if (mem == MAP_FAILED) {
+    // No huge pages reserved in hugetlbfs, so fall back on
+    // transparent huge pages in a region aligned to their size
+    char* raw = (char*) mmap(NULL, size + THP_SIZE, PROT_READ | PROT_WRITE,
+        MAP_PRIVATE | MAP_ANONYMOUS, -1, 0);
+    if (raw == MAP_FAILED) {
+      throwException(env, obj, errno);
+      return 0L;
+    }
+    char* aligned = (char*) (((uintptr_t) raw + THP_SIZE - 1) & ~(THP_SIZE - 1));
+    if (aligned > raw) {
+      munmap(raw, aligned - raw);
+    }
+    munmap(aligned + size, (raw + THP_SIZE) - aligned);
+    mem = aligned;
+    pageSize = (madvise(mem, size, MADV_HUGEPAGE) == 0)? (jlong) THP_SIZE : (jlong) sysconf(_SC_PAGESIZE);
+  }
+  // Bind the region to the node before any page is touched
+  numa_tonode_memory(mem, size, (int) node);
+  (*env)->SetLongArrayRegion(env, obtained, 0, 1, &pageSize);
+  return (jlong) mem;
+}
+
+/*
+ * Class:     xerial_jnuma_NumaNative
+ * Method:    prefault
+ * Signature: (JJ)Z
+ */
+JNIEXPORT jboolean JNICALL Java_xerial_jnuma_NumaNative_prefault
+    (JNIEnv *env, jobject obj, jlong address, jlong length) {
+  // madvise() needs a page-aligned start address
+  const uintptr_t pageSize = (uintptr_t) sysconf(_SC_PAGESIZE);
+  const uintptr_t start = ((uintptr_t) address) & ~(pageSize - 1);
+  const size_t size = (size_t) (((uintptr_t) address + length) - start);
+  return madvise((void*) start, size, MADV_POPULATE_WRITE) == 0;
+}
@@ -39,6 +39,22 @@ JNIEXPORT jint JNICALL Java_xerial_jnuma_NumaNative_currentNode
 JNIEXPORT jint JNICALL Java_xerial_jnuma_NumaNative_currentCpu
   (JNIEnv *, jobject);
 
+/*
+ * Class:     xerial_jnuma_NumaNative
+ * Method:    nodeOfCpu
+ * Signature: (I)I
+ */
+JNIEXPORT jint JNICALL Java_xerial_jnuma_NumaNative_nodeOfCpu
+  (JNIEnv *, jobject, jint);
+
+/*
+ * Class:     xerial_jnuma_NumaNative
+ * Method:    numConfiguredCpus
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_xerial_jnuma_NumaNative_numConfiguredCpus
+  (JNIEnv *, jobject);
+
 /*
  * Class:     xerial_jnuma_NumaNative
  * Method:    nodeSize
@@ -151,13 +167,37 @@ JNIEXPORT jlong JNICALL Java_xerial_jnuma_NumaNative_allocateInterleaved
 JNIEXPORT void JNICALL Java_xerial_jnuma_NumaNative_free
   (JNIEnv *, jobject, jlong, jlong);
 
+/*
+ * Class:     xerial_jnuma_NumaNative
+ * Method:    allocateInterleavedSubset
+ * Signature: (J[J)J
+ */
+JNIEXPORT jlong JNICALL Java_xerial_jnuma_NumaNative_allocateInterleavedSubset
+  (JNIEnv *, jobject, jlong, jlongArray);
+
+/*
+ * Class:     xerial_jnuma_NumaNative
+ * Method:    prefault
+ * Signature: (JJ)Z
+ */
+JNIEXPORT jboolean JNICALL Java_xerial_jnuma_NumaNative_prefault
+  (JNIEnv *, jobject, jlong, jlong);
+
+/*
+ * Class:     xerial_jnuma_NumaNative
+ * Method:    allocateHugePages
+ * Signature: (JIJ[J)J
+ */
+JNIEXPORT jlong JNICALL Java_xerial_jnuma_NumaNative_allocateHugePages
+  (JNIEnv *, jobject, jlong, jint, jlong, jlongArray);
+
 /*
  * Class:     xerial_jnuma_NumaNative
  * Method:    toNode
- * Signature: (JII)V
+ * Signature: (JJI)V
  */
-JNIEXPORT void JNICALL Java_xerial_jnuma_NumaNative_toNode__JII
-  (JNIEnv *, jobject, jlong, jint, jint);
+JNIEXPORT void JNICALL Java_xerial_jnuma_NumaNative_toNode__JJI
+  (JNIEnv *, jobject, jlong, jlong, jint);
 
 /*
  * Class:     xerial_jnuma_NumaNative
@@ -167,6 +207,22 @@ JNIEXPORT void JNICALL Java_xerial_jnuma_NumaNative_toNode__JII
 JNIEXPORT void JNICALL Java_xerial_jnuma_NumaNative_toNode__Ljava_lang_Object_2II
   (JNIEnv *, jobject, jobject, jint, jint);
 
+/*
+ * Class:     xerial_jnuma_NumaNative
+ * Method:    toNodes
+ * Signature: (JJ[J)V
+ */
+JNIEXPORT void JNICALL Java_xerial_jnuma_NumaNative_toNodes
+  (JNIEnv *, jobject, jlong, jlong, jlongArray);
+
+/*
+ * Class:     xerial_jnuma_NumaNative
+ * Method:    movePages
+ * Signature: (I[J[I[I)V
+ */
+JNIEXPORT void JNICALL Java_xerial_jnuma_NumaNative_movePages
+  (JNIEnv *, jobject, jint, jlongArray, jintArray, jintArray);
+
 #ifdef __cplusplus
 }
 #endif
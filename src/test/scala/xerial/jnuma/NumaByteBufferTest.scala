@@ -17,8 +17,9 @@
 package xerial.jnuma
 
 import java.nio.ByteBuffer
+import java.util.concurrent.{Callable, TimeUnit}
 
-import xerial.jnuma.buffer.NumaByteBuffer
+import xerial.jnuma.buffer._
 
 class NumaByteBufferTest extends MySpec {
 
@@ -39,6 +40,210 @@ class NumaByteBufferTest extends MySpec {
       assert(bb.getLong() === 31L)
     }
 
+    "toDirectByteBuffers" in {
+      val buf = new NumaByteBuffer(8 * 1024 * 1024 + 8)
+      buf.putLong(8 * 1024 * 1024, 31L)
+      val views = buf.toDirectByteBuffers(0, buf.size(), 1024 * 1024)
+      assert(views.length === 9)
+      assert(views.map(_.capacity().toLong).sum === buf.size())
+      assert(views.last.getLong() === 31L)
+      assert(buf.toDirectByteBuffers().length === 1)
+      buf.close()
+    }
+
+    "release with reference counting" in {
+      val buf = new NumaByteBuffer(1024, 0)
+      assert(buf.retain() eq buf)
+      assert(buf.refCnt() === 2)
+      assert(buf.releaseAndCheck() === false)
+      buf.putLong(0, 1L)
+      assert(buf.releaseAndCheck() === true)
+      intercept[IllegalStateException] {
+        buf.getLong(0)
+      }
+      intercept[IllegalStateException] {
+        buf.release()
+      }
+      // Closing a released buffer does nothing
+      buf.close()
+    }
+
+    "copy primitive arrays in bulk" in {
+      val buf = new NumaByteBuffer(8 * 1024 * 1024, 0)
+      val longs = Array.tabulate(1024 * 1024 - 1)(_ * 7L)
+      buf.put(8, longs)
+      assert(buf.getLong(8 + 8 * 100) === 700L)
+      val out = new Array[Long](longs.length)
+      buf.get(8, out)
+      assert(out.sameElements(longs))
+
+      val doubles = Array(1.5, 2.5, 3.5)
+      buf.put(0, doubles, 1, 2)
+      assert(buf.getDouble(0) === 2.5)
+      assert(buf.getDouble(8) === 3.5)
+
+      // Copy between overlapping ranges, which moves the old bytes at 8 to 16 and at 16 to 24
+      buf.put(16, buf, 8, 64)
+      assert(buf.getDouble(16) === 3.5)
+      assert(buf.getLong(24) === 7L)
+
+      intercept[IndexOutOfBoundsException] {
+        buf.get(buf.size() - 4, new Array[Int](2))
+      }
+      buf.close()
+    }
+
+    "copy buffers across nodes in parallel" in {
+      val copier = new NumaCopier(4)
+      val size = 32 * 1024 * 1024
+      val src = new NumaByteBuffer(size, 0)
+      for (i <- 0 until size by 8) src.putLong(i, i)
+      for (node <- 0 until Numa.numNodes()) {
+        val dst = new NumaByteBuffer(size, node)
+        val stats = copier.copy(src, 8, dst, 0, size - 8).get()
+        logger.info(s"node 0 -> ${node}: ${stats}")
+        assert(dst.getLong(0) === 8L)
+        assert(dst.getLong(size - 16) === size - 8L)
+        assert(dst.refCnt() === 1)
+        dst.close()
+      }
+      src.close()
+      copier.shutdown()
+    }
+
+    "report residency of pages" in {
+      for (node <- 0 until Numa.numNodes()) {
+        val buf = new NumaByteBuffer(4 * 1024 * 1024, node)
+        buf.clear()
+        val status = buf.residency()
+        val histogram = status.nodeHistogram()
+        logger.info(s"buffer on node ${node}: ${histogram.mkString(",")} failed:${status.numFailedPages()}")
+        assert(histogram.sum + status.numFailedPages() === status.numPages())
+        // Sample every 16th page
+        assert(buf.residency(16).numPages() <= status.numPages() / 16 + 1)
+        buf.close()
+      }
+    }
+
+    "allocate buffer with huge pages" in {
+      val buf = new NumaByteBuffer(3 * 1024 * 1024, 0, Numa.HUGE_PAGE_2MB)
+      logger.info(s"obtained page size: ${buf.pageSize()}")
+      assert(buf.size() === 3 * 1024 * 1024)
+      buf.putLong(buf.size() - 8, 7L)
+      assert(buf.getLong(buf.size() - 8) === 7L)
+      buf.close()
+    }
+
+    "measure access costs between nodes" taggedAs "probe" in {
+      val matrix = new NumaProbe(4 * 1024 * 1024, 1).measure()
+      logger.info(s"measured costs:\n${matrix}")
+      assert(matrix.numNodes() === Numa.numNodes())
+      for (c <- 0 until Numa.numNodes(); m <- 0 until Numa.numNodes()) {
+        assert(matrix.readBandwidth(c, m) > 0.0)
+        assert(matrix.writeBandwidth(c, m) > 0.0)
+        assert(matrix.latency(c, m) > 0.0)
+      }
+      assert(matrix.distance(0, 0) === 10)
+      assert(matrix.nodesByLatency(0).sorted.toSeq === (0 until Numa.numNodes()))
+    }
+
+    "run parallel operations split by nodes" taggedAs "parallel" in {
+      val executor = new NumaExecutor(2)
+      val parallel = new NumaParallel(executor)
+      val n = 1000000
+      val buf = new NumaByteBuffer(n * 8L, 0)
+      parallel.fill(buf, 0, buf.size(), 1.toByte)
+      val sum = parallel.reduce(buf, 0, buf.size(), new NumaParallel.RangeReducer[java.lang.Long] {
+        override def reduce(b: NumaByteBuffer, offset: Long, length: Long): java.lang.Long =
+          (offset until offset + length).map(b.getByte(_).toLong).sum
+        override def combine(l: java.lang.Long, r: java.lang.Long): java.lang.Long = l + r
+      })
+      assert(sum === buf.size())
+
+      val rand = new scala.util.Random(0)
+      val values = Array.fill(n)(rand.nextLong())
+      buf.put(0, values)
+      parallel.sortLongs(buf, 0, buf.size())
+      val sorted = new Array[Long](n)
+      buf.get(0, sorted)
+      assert(sorted.toSeq === values.sorted.toSeq)
+
+      buf.close()
+      executor.shutdown()
+    }
+
+    "run parallel operations from a worker" taggedAs "parallel" in {
+      // A single worker per node must run the splits of its own task
+      val executor = new NumaExecutor(1)
+      val parallel = new NumaParallel(executor)
+      val buf = new NumaByteBuffer(4L * 1024 * 1024, 0)
+      val rand = new scala.util.Random(0)
+      val values = Array.fill((buf.size() / 8).toInt)(rand.nextLong())
+      buf.put(0, values)
+      val f = executor.submit(new Callable[Unit] {
+        override def call(): Unit = parallel.sortLongs(buf, 0, buf.size())
+      }, 0)
+      f.get(60, TimeUnit.SECONDS)
+      val sorted = new Array[Long](values.length)
+      buf.get(0, sorted)
+      assert(sorted.toSeq === values.sorted.toSeq)
+
+      buf.close()
+      executor.shutdown()
+    }
+
+    "stripe a buffer over nodes" taggedAs "striped" in {
+      val sizes = Array.fill(Numa.numNodes())(1024L * 1024)
+      val buf = new NumaStripedBuffer(sizes)
+      assert(buf.size() === sizes.sum)
+      for (i <- 0 until buf.numSegments()) {
+        val start = buf.segmentStart(i)
+        assert(buf.segmentFor(start) === i)
+        assert(buf.nodeOf(start) === i)
+        buf.putLong(start, i)
+        assert(buf.segment(i).getLong(0) === i)
+      }
+      intercept[IndexOutOfBoundsException] {
+        buf.getLong(buf.size() - 4)
+      }
+      buf.close()
+
+      // Only the last segment may end in the middle of a page
+      if (Numa.numNodes() > 1) {
+        intercept[IllegalArgumentException] {
+          new NumaStripedBuffer(Array.fill(Numa.numNodes())(1000L))
+        }
+      }
+
+      // Sizes proportional to free memory cover the whole capacity
+      val proportional = new NumaStripedBuffer(10 * 1024 * 1024 + 1)
+      assert((0 until proportional.numSegments()).map(proportional.segment(_).size()).sum === proportional.size())
+      proportional.close()
+    }
+
+    "replicate a buffer to every node" taggedAs "replicated" in {
+      val buf = new NumaReplicatedBuffer(1024 * 1024)
+      assert(buf.version() === 0)
+      assert(buf.getLong(0) === 0L)
+
+      buf.primary().putLong(0, 42L)
+      // Readers see the new contents only after a refresh
+      assert(buf.getLong(0) === 0L)
+      assert(buf.refresh() === 1)
+      assert(buf.getLong(0) === 42L)
+
+      // A held replica survives later refreshes, and is freed on its last release
+      val held = buf.acquireLocal()
+      assert(held.node() === Numa.currentNode())
+      buf.primary().putLong(0, 43L)
+      buf.refresh()
+      buf.refresh()
+      assert(held.getLong(0) === 42L)
+      assert(buf.getLong(0) === 43L)
+      assert(held.releaseAndCheck())
+      buf.close()
+    }
+
     "allocate buffer on nodes" in {
       val N = 100000
 
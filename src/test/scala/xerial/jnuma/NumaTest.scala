@@ -16,6 +16,10 @@
 
 package xerial.jnuma
 
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.{Callable, TimeUnit}
+
 class NumaTest extends MySpec {
 
   "Numa" should {
@@ -83,6 +87,25 @@ class NumaTest extends MySpec {
       }
     }
 
+    "move pages to nodes" taggedAs "movePages" in {
+      val size = 4L * 1024 * 1024
+      val address = Numa.allocate(size)
+      try {
+        // Touch pages so that they are mapped
+        xerial.jnuma.utils.PlatformDependent.UNSAFE.setMemory(address, size, 0.toByte)
+        for (node <- 0 until Numa.numNodes()) {
+          val status = Numa.movePages(address, size, node)
+          assert(status.numPages() === size / Numa.pageSize())
+          logger.info(s"moved ${status.numPagesOnNode(node)} pages to node ${node}, failed:${status.numFailedPages()}")
+        }
+        val async = Numa.movePagesAsync(Array(address, address + size / 2), Array(1024L, 1024L), 0).get()
+        assert(async.numPages() === 2)
+        assert(async.pageAddress(1) === ((address + size / 2) & -Numa.pageSize().toLong))
+      } finally {
+        Numa.free(address, size)
+      }
+    }
+
     "set affinity" taggedAs "affinity" in {
       (0 until Numa.numCPUs()).map { cpu =>
         boundTo(cpu) {
@@ -94,5 +117,169 @@ class NumaTest extends MySpec {
         }
       }
     }
+
+    "cache topology" taggedAs "topology" in {
+      val topology = NumaTopology.get()
+      logger.info(s"topology:\n${topology}")
+      assert(topology.numNodes() === Numa.numNodes())
+      for (node <- 0 until topology.numNodes()) {
+        topology.cpusOf(node).foreach(cpu => assert(topology.nodeOfCpu(cpu) === node))
+        assert(topology.distance(node, node) === Numa.distance(node, node))
+      }
+      assert(topology.nodeOfCpu(Numa.currentCpu()) >= 0)
+      assert(topology.nodeOfCpu(topology.numCPUs()) === -1)
+      assert(NumaTopology.refresh() ne topology)
+    }
+
+    "cache the current CPU per thread" taggedAs "cachedCpu" in {
+      val cpu = Numa.cachedCurrentCpu()
+      assert(cpu >= 0)
+      assert(Numa.cachedCurrentNode() === NumaTopology.get().nodeOfCpu(cpu))
+
+      // Binding the thread drops the cached value, which needs the NUMA API.
+      // The cost of the lookups is measured in JniBenchmark.
+      assume(Numa.isAvailable)
+      Numa.runOnNode(0)
+      assert(Numa.cachedCurrentNode() === 0)
+      Numa.runOnAllNodes()
+    }
+
+    "represent CPU and node sets" taggedAs "cpuset" in {
+      val cpus = CpuSet.parse("0-15,32-47\n")
+      assert(cpus.toString === "0-15,32-47")
+      assert(cpus.size === 32)
+      assert(cpus.contains(32) && !cpus.contains(16))
+      assert(cpus.next(16) === 32)
+      assert(CpuSet.parse("3,1,2,5").toArray.toSeq === Seq(1, 2, 3, 5))
+      assert(CpuSet.parse("") === CpuSet.EMPTY)
+      intercept[IllegalArgumentException] {
+        CpuSet.parse("3-1")
+      }
+
+      // CPU numbers beyond the size of cpu_set_t
+      val large = CpuSet.of(1, 2000)
+      assert(large.toMask.length === 32)
+      assert(cpus.union(large).toString === "0-15,32-47,2000")
+      assert(cpus.intersect(CpuSet.range(10, 40)).toString === "10-15,32-40")
+      assert(cpus.minus(CpuSet.range(10, 40)).toString === "0-9,41-47")
+      assert(cpus.containsAll(CpuSet.range(1, 15)))
+      assert(CpuSet.range(0, 63) === CpuSet.fromMask(Array(-1L, 0L)))
+
+      val nodes = NodeSet.parse("0-1")
+      assert(nodes.toArray.toSeq === Seq(0, 1))
+      assert(CpuSet.of(0) != NodeSet.of(0))
+    }
+
+    "bind threads with CPU and node sets" taggedAs "affinity" in {
+      // Affinity is not changed without the NUMA API
+      assume(Numa.isAvailable)
+      val allowed = Numa.getAffinity()
+      assert(!allowed.isEmpty)
+      val cpu = allowed.first()
+      try {
+        Numa.setAffinity(CpuSet.of(cpu))
+        assert(Numa.getAffinity() === CpuSet.of(cpu))
+        Numa.resetAffinity()
+        assert(Numa.getAffinity().containsAll(allowed))
+
+        val topology = NumaTopology.get()
+        val node = topology.nodeOfCpu(cpu)
+        Numa.runOnNodes(NodeSet.of(node))
+        assert(topology.nodesOf(Numa.getAffinity()) === NodeSet.of(node))
+      } finally {
+        Numa.setAffinity(allowed)
+      }
+    }
+
+    "allocate memory on node sets" taggedAs "nodeSet" in {
+      val size = 4L * 1024 * 1024
+      val all = NodeSet.range(0, Numa.numNodes() - 1)
+      val interleaved = Numa.allocateInterleaved(size, all)
+      val bound = Numa.allocateOnNodes(size, all)
+      try {
+        for (address <- Seq(interleaved, bound)) {
+          xerial.jnuma.utils.PlatformDependent.UNSAFE.setMemory(address, size, 0.toByte)
+          val status = Numa.queryPages(address, size)
+          assert(status.nodeHistogram().sum === status.numPages())
+        }
+        Numa.toNodes(bound, size, NodeSet.of(0))
+      } finally {
+        Numa.free(interleaved, size)
+        Numa.free(bound, size)
+      }
+      intercept[IllegalArgumentException] {
+        Numa.allocateInterleaved(size, NodeSet.of())
+      }
+      intercept[IllegalArgumentException] {
+        Numa.toNodes(bound, size, NodeSet.of(Numa.numNodes()))
+      }
+    }
+
+    "read topology from sysfs" taggedAs "sysfs" in {
+      // Build a fake tree of two nodes
+      val root = Files.createTempDirectory("jnuma-sysfs").toFile
+      def write(path: String, content: String): Unit = {
+        val f = new File(root, path)
+        f.getParentFile.mkdirs()
+        Files.write(f.toPath, content.getBytes("UTF-8"))
+      }
+      write("sys/devices/system/node/online", "0-1\n")
+      write("sys/devices/system/node/node0/cpulist", "0-1,4\n")
+      write("sys/devices/system/node/node1/cpulist", "2-3,5\n")
+      write("sys/devices/system/node/node0/distance", "10 21\n")
+      write("sys/devices/system/node/node1/distance", "21 10\n")
+      write("sys/devices/system/node/node0/meminfo",
+        "Node 0 MemTotal:        8192 kB\nNode 0 MemFree:         4096 kB\n")
+      write("sys/devices/system/node/node1/meminfo",
+        "Node 1 MemTotal:        2048 kB\nNode 1 MemFree:         1024 kB\n")
+      write("proc/self/status", "Name:\tjava\nCpus_allowed_list:\t1-2,5\n")
+      write("proc/self/stat", "42 (java (main)) S " + (4 to 38).mkString(" ") + " 3 0 0\n")
+
+      val sysfs = new SysfsNuma(root)
+      assert(!sysfs.isAvailable)
+      assert(sysfs.maxNode() === 1)
+      assert(sysfs.numConfiguredCpus() === 6)
+      assert((0 until 6).map(sysfs.nodeOfCpu) === Seq(0, 0, 1, 1, 0, 1))
+      assert(sysfs.nodeOfCpu(6) === -1)
+      assert(sysfs.distance(0, 1) === 21)
+      assert(sysfs.distance(1, 1) === 10)
+      assert(sysfs.nodeSize(0) === 8192L * 1024)
+      assert(sysfs.freeSize(1) === 1024L * 1024)
+      assert(sysfs.currentCpu() === 3)
+      assert(sysfs.currentNode() === 1)
+      val mask = new Array[Long](1)
+      sysfs.getAffinity(0, mask, 6)
+      assert(mask(0) === 0x26L)
+
+      // A snapshot sees a CPU brought online after the implementation read the tree
+      write("sys/devices/system/node/node1/cpulist", "2-3,5-6\n")
+      assert(sysfs.nodeOfCpu(6) === -1)
+      val topology = new NumaTopology(sysfs, root)
+      assert(topology.numCPUs() === 7)
+      assert(topology.nodeOfCpu(6) === 1)
+      assert(topology.cpusOf(1).toSeq === Seq(2, 3, 5, 6))
+    }
+
+    "run tasks on nodes" taggedAs "executor" in {
+      val executor = new NumaExecutor(2)
+      val futures = (0 until 100).map { i =>
+        val node = i % Numa.numNodes()
+        executor.submit(new Callable[Int] {
+          override def call(): Int = {
+            Thread.sleep(1)
+            Numa.currentNode()
+          }
+        }, node)
+      }
+      val nodes = futures.map(_.get())
+      // Tasks run on their own node unless stolen by another one
+      assert(nodes.zipWithIndex.count { case (n, i) => n != i % Numa.numNodes() } <= executor.stolenCount())
+
+      executor.shutdown()
+      assert(executor.awaitTermination(10, TimeUnit.SECONDS))
+      intercept[java.util.concurrent.RejectedExecutionException] {
+        executor.execute(new Runnable { override def run(): Unit = {} })
+      }
+    }
   }
 }
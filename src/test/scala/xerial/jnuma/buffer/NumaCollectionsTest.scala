@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.buffer
+
+import xerial.jnuma.MySpec
+
+import scala.collection.mutable
+
+class NumaCollectionsTest extends MySpec {
+
+  "NumaLongArray" should {
+    "store elements off heap" in {
+      val array = new NumaLongArray(1024, 0)
+      assert(array.node() === 0)
+      (0 until 1024).foreach(i => array.set(i, i * 3L))
+      assert(array.get(1023) === 1023 * 3L)
+      val dst = new Array[Long](4)
+      array.get(1020, dst, 0, 4)
+      assert(dst.toSeq === (1020 until 1024).map(_ * 3L))
+      intercept[IndexOutOfBoundsException] {
+        array.get(1024)
+      }
+      array.close()
+    }
+  }
+
+  "NumaIntArray" should {
+    "store elements off heap" in {
+      val array = new NumaIntArray(100)
+      assert(array.get(99) === 0)
+      array.fill(7)
+      assert(array.get(99) === 7)
+      array.close()
+    }
+  }
+
+  "NumaLongLongHashMap" should {
+    "behave like a hash map while growing" in {
+      val map = new NumaLongLongHashMap(16, 0)
+      val expected = mutable.Map[Long, Long]()
+      val rand = new scala.util.Random(0)
+      for (_ <- 0 until 100000) {
+        val key = rand.nextInt(10000).toLong - 100
+        rand.nextInt(3) match {
+          case 0 =>
+            assert(map.remove(key) === expected.remove(key).isDefined)
+          case _ =>
+            val value = rand.nextLong()
+            assert(map.put(key, value) === !expected.contains(key))
+            expected(key) = value
+        }
+      }
+      assert(map.size() === expected.size)
+      expected.foreach { case (k, v) => assert(map.get(k, -1) === v) }
+      // The table grows on the original node
+      assert(map.capacity() > 16)
+      assert(map.node() === 0)
+      map.close()
+    }
+  }
+
+  def transfer(ring: NumaRingBuffer, producers: Int, perProducer: Int): Unit = {
+    val threads = (0 until producers).map { id =>
+      new Thread(new Runnable {
+        override def run(): Unit = {
+          val batch = Array.tabulate(perProducer)(i => (id.toLong << 32) | i)
+          ring.put(batch, 0, batch.length)
+        }
+      })
+    }
+    threads.foreach(_.start())
+    // Values of each producer arrive in order
+    val next = new Array[Long](producers)
+    val dst = new Array[Long](64)
+    var received = 0L
+    while (received < producers.toLong * perProducer) {
+      val n = ring.take(dst, 0, dst.length)
+      for (i <- 0 until n) {
+        val id = (dst(i) >>> 32).toInt
+        assert((dst(i) & 0xffffffffL) === next(id))
+        next(id) += 1
+      }
+      received += n
+    }
+    threads.foreach(_.join())
+    assert(ring.size() === 0)
+    ring.close()
+  }
+
+  "NumaSpscRingBuffer" should {
+    "hand values over in order" in {
+      val ring = new NumaSpscRingBuffer(16, 0)
+      assert(ring.offer(1L))
+      assert(ring.offer(Array.fill(20)(2L), 0, 20) === 15)
+      assert(!ring.offer(3L))
+      assert(ring.take() === 1L)
+      ring.close()
+
+      transfer(new NumaSpscRingBuffer(1024, 0, WaitStrategies.YIELD), 1, 100000)
+    }
+  }
+
+  "NumaMpscRingBuffer" should {
+    "hand values over from multiple producers" in {
+      transfer(new NumaMpscRingBuffer(64, 0, WaitStrategies.PARK), 4, 100000)
+    }
+  }
+}
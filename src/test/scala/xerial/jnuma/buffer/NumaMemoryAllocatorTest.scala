@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xerial.jnuma.buffer
+
+import xerial.jnuma.{MySpec, Numa}
+
+class NumaMemoryAllocatorTest extends MySpec {
+
+  "NumaMemoryAllocator" should {
+
+    "recycle chunks in arena mode" in {
+      val allocator = new NumaMemoryAllocator(true)
+      val m1 = allocator.allocate(100, 0)
+      val m2 = allocator.allocate(100, 0)
+      assert(allocator.allocatedSize(0) === 200)
+      assert(allocator.arenaReservedSize(0) === NumaBufferConfig.arenaRegionSize)
+
+      // A released chunk is reused for the same size class
+      val address = m1.address()
+      allocator.release(m1)
+      assert(allocator.allocatedSize(0) === 100)
+      val m3 = allocator.allocate(120, 0)
+      assert(m3.address() === address)
+
+      // Large allocations bypass the arena
+      val large = allocator.allocate(NumaBufferConfig.arenaMaxChunkSize + 1, 0)
+      assert(allocator.arenaReservedSize(0) === NumaBufferConfig.arenaRegionSize)
+
+      Seq(m2, m3, large).foreach(m => allocator.release(m))
+      assert(allocator.allocatedSize(0) === 0)
+    }
+
+    "serve released memory from a thread cache" in {
+      val allocator = new NumaMemoryAllocator(false, 4)
+      val ms = (0 until 8).map(_ => allocator.allocate(1024, 0))
+      ms.foreach(m => allocator.release(m))
+      assert(allocator.allocatedSize(0) === 0)
+
+      // Released twice, but counted once
+      allocator.release(ms.last)
+      assert(allocator.allocatedSize(0) === 0)
+
+      // The most recently released memory comes first
+      val m = allocator.allocate(1024, 0)
+      assert(m eq ms.last)
+      assert(allocator.allocatedSize(0) === 1024)
+      allocator.release(m)
+    }
+
+    "release memory concurrently" in {
+      val allocator = new NumaMemoryAllocator(true, 0)
+      val threads = (0 until 8).map { _ =>
+        new Thread(new Runnable {
+          override def run(): Unit = {
+            val ms = (0 until 10000).map(i => allocator.allocate(16 + i % 4096, 0))
+            ms.foreach { m =>
+              allocator.release(m)
+              allocator.release(m)
+            }
+          }
+        })
+      }
+      threads.foreach(_.start())
+      threads.foreach(_.join())
+      assert(allocator.allocatedSize(0) === 0)
+    }
+
+    "populate pages on allocation" in {
+      val allocator = new NumaMemoryAllocator(false, 0)
+      val m = allocator.allocate(4 * 1024 * 1024, 0, true)
+      // Every page is resident without being written
+      assert(Numa.queryPages(m.address(), m.size()).numFailedPages() === 0)
+      allocator.release(m)
+    }
+
+    "report leaked memory" in {
+      val allocator = new NumaMemoryAllocator(false, 0)
+      allocator.setLeakDetectionLevel(LeakDetectionLevel.PARANOID)
+      (0 until 3).foreach(_ => allocator.allocate(1024, 0))
+      var retry = 0
+      while (allocator.leakCount() < 3 && retry < 50) {
+        System.gc()
+        Thread.sleep(100)
+        retry += 1
+      }
+      assert(allocator.leakCount() === 3)
+      assert(allocator.allocatedSize(0) === 0)
+    }
+  }
+}